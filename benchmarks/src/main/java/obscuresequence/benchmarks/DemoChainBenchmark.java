@@ -0,0 +1,77 @@
+/*
+ * Copyright 2017 OldCurmudgeon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package obscuresequence.benchmarks;
+
+import obscuresequence.GaloisLFSRSequence;
+import obscuresequence.ObscureSequence;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The chain from Demo1024BitSequence - building it (which includes the discard) and 10 values,
+ * then the values alone from a chain already built.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DemoChainBenchmark {
+    private ObscureSequence chain;
+
+    static ObscureSequence chain() {
+        return new GaloisLFSRSequence(1024)
+                .obscureBit(0)
+                .stagger(10)
+                .discard(Integer.MAX_VALUE / 16384);
+    }
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        chain = chain();
+    }
+
+    @Benchmark
+    public void demo(Blackhole bh) {
+        ObscureSequence s = chain().limit(10);
+        while (s.hasNext()) {
+            bh.consume(s.next());
+        }
+    }
+
+    @Benchmark
+    public BigInteger next() {
+        return chain.next();
+    }
+}
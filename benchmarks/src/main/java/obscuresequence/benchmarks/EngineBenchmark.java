@@ -0,0 +1,102 @@
+/*
+ * Copyright 2017 OldCurmudgeon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package obscuresequence.benchmarks;
+
+import obscuresequence.GaloisLFSRSequence;
+import obscuresequence.LongGaloisLFSRSequence;
+import obscuresequence.WideGaloisLFSRSequence;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The engines - one value at a time at various widths.
+ *
+ * Narrow sequences run out so we start them again when they do - one hasNext per value and a
+ * new sequence every 2^n - 1 values which is lost in the noise.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EngineBenchmark {
+    @Param({"8", "64", "95", "1024", "4096"})
+    int width;
+
+    private GaloisLFSRSequence galois;
+    private LongGaloisLFSRSequence longGalois;
+    private WideGaloisLFSRSequence wideGalois;
+    private long[] words;
+    private final long[] batch = new long[1024];
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        galois = new GaloisLFSRSequence(width);
+        wideGalois = new WideGaloisLFSRSequence(width);
+        // Only up to 64 bits.
+        longGalois = width <= Long.SIZE ? new LongGaloisLFSRSequence(width) : null;
+        words = new long[(width + Long.SIZE - 1) / Long.SIZE];
+    }
+
+    @Benchmark
+    public BigInteger galoisNext() {
+        if (!galois.hasNext()) {
+            galois = new GaloisLFSRSequence(width);
+        }
+        return galois.next();
+    }
+
+    @Benchmark
+    public long[] wideNextWords() {
+        if (!wideGalois.nextWords(words)) {
+            wideGalois = new WideGaloisLFSRSequence(width);
+        }
+        return words;
+    }
+
+    /**
+     * A batch of longs - 0 for those too wide for a long.
+     */
+    @Benchmark
+    public int longFill() {
+        if (longGalois == null) {
+            return 0;
+        }
+        int got = longGalois.fill(batch, 0, batch.length);
+        if (got < batch.length) {
+            longGalois = new LongGaloisLFSRSequence(width);
+        }
+        return got;
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2017 OldCurmudgeon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package obscuresequence.benchmarks;
+
+import obscuresequence.GaloisLFSRSequence;
+import obscuresequence.LongGaloisLFSRSequence;
+import obscuresequence.ObscureSequence;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The operators on top of a 64-bit engine - obscureBit and stagger - and discard.
+ *
+ * The 64-bit sequences will not run out during a benchmark.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OperatorBenchmark {
+
+    @State(Scope.Thread)
+    public static class Obscured {
+        ObscureSequence sequence;
+
+        @Setup(Level.Iteration)
+        public void setup() {
+            sequence = new GaloisLFSRSequence(64).obscureBit(0);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Staggered {
+        // Permutations of 4, 6, 10 and 20 entries.
+        @Param({"10", "867", "1000000", "1000000000000000000"})
+        String permutation;
+
+        ObscureSequence sequence;
+        // The same on the primitive path.
+        ObscureSequence longs;
+        final long[] batch = new long[1024];
+
+        @Setup(Level.Iteration)
+        public void setup() {
+            sequence = new GaloisLFSRSequence(64).stagger(new BigInteger(permutation));
+            longs = new LongGaloisLFSRSequence(64).obscureBit(0).stagger(new BigInteger(permutation));
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Discard {
+        // How far to jump.
+        @Param({"1000", "1000000000", "1000000000000000000000000000000"})
+        String steps;
+
+        BigInteger n;
+
+        @Setup
+        public void setup() {
+            n = new BigInteger(steps);
+        }
+    }
+
+    @Benchmark
+    public BigInteger obscureBit(Obscured state) {
+        return state.sequence.next();
+    }
+
+    @Benchmark
+    public BigInteger stagger(Staggered state) {
+        return state.sequence.next();
+    }
+
+    /**
+     * The primitive path through both - a batch of longs.
+     */
+    @Benchmark
+    public int obscureBitStaggerFill(Staggered state) {
+        return state.longs.fill(state.batch, 0, state.batch.length);
+    }
+
+    @Benchmark
+    public ObscureSequence discard1024(Discard state) {
+        return new GaloisLFSRSequence(1024).discard(state.n);
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2017 OldCurmudgeon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package obscuresequence.benchmarks;
+
+import obscuresequence.ObscureSequence;
+import obscuresequence.SlicedSequence;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Making slices - just the slice, not running it.
+ *
+ * There are (n,k) slices so we start again when we run out.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SliceBenchmark {
+    // n:k
+    @Param({"64:3", "95:5", "1024:2"})
+    String slicing;
+
+    private int n;
+    private int k;
+    private Iterator<ObscureSequence> slices;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        String[] nk = slicing.split(":");
+        n = Integer.parseInt(nk[0]);
+        k = Integer.parseInt(nk[1]);
+        slices = new SlicedSequence(n, k).iterator();
+    }
+
+    @Benchmark
+    public ObscureSequence nextSlice() {
+        if (!slices.hasNext()) {
+            slices = new SlicedSequence(n, k).iterator();
+        }
+        return slices.next();
+    }
+}
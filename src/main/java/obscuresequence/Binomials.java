@@ -0,0 +1,111 @@
+/*
+ * Copyright 2017 OldCurmudgeon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package obscuresequence;
+
+import java.math.BigInteger;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Binomial coefficients (n,k) - shared and thread safe.
+ *
+ * The first ROWS rows of Pascal's triangle are built once (on first use) and kept both as
+ * BigIntegers and, where they fit, as longs. Anything bigger is worked out multiplicatively and
+ * remembered.
+ */
+final class Binomials {
+    // How much of Pascal's triangle we keep.
+    static final int ROWS = 128;
+    // Marks a long entry that does not fit.
+    static final long TOO_BIG = -1;
+    // The triangle - built by the holder so it is only built once and only if needed.
+    private static final class Triangle {
+        static final BigInteger[][] BIG = new BigInteger[ROWS + 1][];
+        static final long[][] LONG = new long[ROWS + 1][];
+
+        static {
+            for (int n = 0; n <= ROWS; n++) {
+                BIG[n] = new BigInteger[n + 1];
+                LONG[n] = new long[n + 1];
+                BIG[n][0] = BIG[n][n] = BigInteger.ONE;
+                for (int k = 1; k < n; k++) {
+                    BIG[n][k] = BIG[n - 1][k - 1].add(BIG[n - 1][k]);
+                }
+                for (int k = 0; k <= n; k++) {
+                    LONG[n][k] = BIG[n][k].bitLength() < Long.SIZE ? BIG[n][k].longValue() : TOO_BIG;
+                }
+            }
+        }
+    }
+
+    // Those outside the triangle - keyed by n and k packed into a long.
+    private static final Map<Long, BigInteger> big = new ConcurrentHashMap<>();
+
+    private Binomials() {
+    }
+
+    /**
+     * (n,k) - 0 if k < 0 or k > n.
+     */
+    static BigInteger choose(int n, int k) {
+        if (k < 0 || k > n) {
+            return BigInteger.ZERO;
+        }
+        if (n <= ROWS) {
+            return Triangle.BIG[n][k];
+        }
+        // Symmetric - keeps the cache and the work down.
+        int j = Math.min(k, n - k);
+        return big.computeIfAbsent(((long) n << Integer.SIZE) | j, key -> multiplicative(n, j));
+    }
+
+    /**
+     * (n,k) as a long.
+     *
+     * @return the value or TOO_BIG if it does not fit.
+     */
+    static long chooseLong(int n, int k) {
+        if (k < 0 || k > n) {
+            return 0;
+        }
+        if (n <= ROWS) {
+            return Triangle.LONG[n][k];
+        }
+        BigInteger c = choose(n, k);
+        return c.bitLength() < Long.SIZE ? c.longValue() : TOO_BIG;
+    }
+
+    /**
+     * Row n of the triangle as longs (TOO_BIG where they do not fit) - n no more than ROWS.
+     *
+     * Do not modify it.
+     */
+    static long[] longRow(int n) {
+        return Triangle.LONG[n];
+    }
+
+    // n (n-1) ... (n-k+1) / k! - each partial product is itself a binomial so the divisions are exact.
+    private static BigInteger multiplicative(int n, int k) {
+        BigInteger c = BigInteger.ONE;
+        for (int i = 1; i <= k; i++) {
+            c = c.multiply(BigInteger.valueOf(n - k + i)).divide(BigInteger.valueOf(i));
+        }
+        return c;
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2017 OldCurmudgeon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package obscuresequence;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Saves the exact state of a whole chain of sequences so it can be picked up again later -
+ * without replaying any values.
+ *
+ * Each stage writes a tag, its own state and then its source. Values are written as their raw
+ * bytes with a length so a 1024-bit LFSR costs a few hundred bytes.
+ *
+ * Only the stages in this package can be saved - LFSRs, obscureBit(s), stagger, limit and
+ * PlainSequence.
+ *
+ * e.g.
+ *
+ * byte[] saved = Checkpoint.save(sequence);
+ * ...
+ * ObscureSequence sequence = Checkpoint.restore(saved);
+ */
+public final class Checkpoint {
+    // 'OSCP'
+    private static final int MAGIC = 0x4F534350;
+    private static final int VERSION = 1;
+    // The stage tags.
+    static final byte GALOIS = 1;
+    static final byte LONG_GALOIS = 2;
+    static final byte WIDE_GALOIS = 3;
+    static final byte OBSCURED_BITS = 4;
+    static final byte STAGGERED = 5;
+    static final byte LIMITED = 6;
+    static final byte PLAIN = 7;
+    static final byte REVERSED = 8;
+
+    private Checkpoint() {
+    }
+
+    /**
+     * Save the chain.
+     *
+     * @param sequence - the last stage of the chain.
+     * @return its state.
+     * @throws UnsupportedOperationException if any stage cannot be saved.
+     */
+    public static byte[] save(ObscureSequence sequence) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            save(sequence, bytes);
+        } catch (IOException e) {
+            // Not from a ByteArrayOutputStream.
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    public static void save(ObscureSequence sequence, OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(MAGIC);
+        data.writeByte(VERSION);
+        sequence.save(data);
+        data.flush();
+    }
+
+    /**
+     * Restore a chain - it carries on exactly where the saved one was.
+     *
+     * @param saved - what save gave.
+     * @return the last stage of the chain.
+     */
+    public static ObscureSequence restore(byte[] saved) {
+        try {
+            return restore(new ByteArrayInputStream(saved));
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Bad checkpoint.", e);
+        }
+    }
+
+    public static ObscureSequence restore(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        if (data.readInt() != MAGIC) {
+            throw new IOException("Not a checkpoint.");
+        }
+        int version = data.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("Unknown checkpoint version " + version);
+        }
+        return read(data);
+    }
+
+    // The next stage.
+    static ObscureSequence read(DataInput in) throws IOException {
+        byte tag = in.readByte();
+        switch (tag) {
+            case GALOIS:
+                return GaloisLFSRSequence.restore(in);
+            case LONG_GALOIS:
+                return LongGaloisLFSRSequence.restore(in);
+            case WIDE_GALOIS:
+                return WideGaloisLFSRSequence.restore(in);
+            case OBSCURED_BITS:
+                return ObscuredBitsSequence.restore(in);
+            case STAGGERED:
+                return StaggeredSequence.restore(in);
+            case LIMITED:
+                return LimitedSequence.restore(in);
+            case PLAIN:
+                return PlainSequence.restore(in);
+            case REVERSED:
+                return ReversedSequence.restore(in);
+            default:
+                throw new IOException("Unknown stage " + tag);
+        }
+    }
+
+    // A BigInteger that may be null.
+    static void writeBig(DataOutput out, BigInteger value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = value.toByteArray();
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    static BigInteger readBig(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new BigInteger(bytes);
+    }
+
+    static void writeWords(DataOutput out, long[] words) throws IOException {
+        out.writeInt(words.length);
+        for (long word : words) {
+            out.writeLong(word);
+        }
+    }
+
+    static long[] readWords(DataInput in) throws IOException {
+        long[] words = new long[in.readInt()];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = in.readLong();
+        }
+        return words;
+    }
+
+    // Taps from the bits set in the tap words - the width first.
+    static void writeTaps(DataOutput out, int n, long[] taps) throws IOException {
+        List<Integer> list = new ArrayList<>();
+        list.add(n);
+        for (int bit = taps.length * Long.SIZE - 1; bit >= 0; bit--) {
+            if ((taps[bit / Long.SIZE] & (1L << bit)) != 0 && bit + 1 != n) {
+                list.add(bit + 1);
+            }
+        }
+        writeTaps(out, list.toArray(new Integer[0]));
+    }
+
+    static void writeTaps(DataOutput out, Integer[] taps) throws IOException {
+        out.writeShort(taps.length);
+        for (Integer tap : taps) {
+            out.writeInt(tap);
+        }
+    }
+
+    static Integer[] readTaps(DataInput in) throws IOException {
+        Integer[] taps = new Integer[in.readUnsignedShort()];
+        for (int i = 0; i < taps.length; i++) {
+            taps[i] = in.readInt();
+        }
+        return taps;
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright 2017 OldCurmudgeon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package obscuresequence;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Logarithms in the arithmetic of an LFSR - how many steps it takes to get from one value to another.
+ *
+ * The value m steps after s is s * taps^m (see GaloisField) so the number of steps from s to v is
+ * the log of v / s to the base taps. If the taps are primitive taps has order 2^n - 1 and
+ * Pohlig-Hellman splits the log into one for each prime power p^e dividing 2^n - 1. Each of
+ * those is e logs in a group of order p which baby-step giant-step does in about sqrt(p)
+ * multiplications. The Chinese remainder theorem puts them back together.
+ *
+ * The baby steps for each prime are the expensive part so they are kept - there is one of these
+ * for each set of taps, built when first needed, and the baby steps for each prime are only
+ * worked out the first time we need them.
+ *
+ * So it only works if we know all the prime factors of 2^n - 1 (see MersenneFactors) and none
+ * of them is enormous. That still covers most widths up to 100 or so bits - 95 is fine, its
+ * biggest is 30327152671 - but not, for example, 127 where 2^127 - 1 is prime.
+ */
+final class DiscreteLog {
+    // The biggest prime factor of 2^n - 1 we can cope with.
+    static final int MAX_PRIME_BITS = 44;
+    // The most baby steps we keep for one prime - past that we take more giant steps.
+    static final int MAX_BABY = 1 << 20;
+    // The baby steps are kept so we would rather not take more giant steps than this for each log.
+    static final int GIANTS = 1 << 10;
+    // Those we have built - by taps.
+    private static final Map<BigInteger, DiscreteLog> known = new ConcurrentHashMap<>();
+    // The arithmetic.
+    final GaloisField field;
+    // The taps - the base of our logs.
+    private final long[] taps;
+    // Its order - 2^n - 1.
+    private final BigInteger order;
+    // One for each prime power dividing the order.
+    private final Factor[] factors;
+
+    private DiscreteLog(int n, long[] taps) {
+        MersenneFactors mersenne = MersenneFactors.of(n);
+        if (!mersenne.complete()) {
+            throw new ArithmeticException("Cannot take logs at " + n + " bits - 2^" + n + " - 1 is not fully factored.");
+        }
+        this.field = new GaloisField(n, taps);
+        this.taps = taps.clone();
+        this.order = field.period();
+        BigInteger[] primes = mersenne.primes();
+        factors = new Factor[primes.length];
+        for (int i = 0; i < primes.length; i++) {
+            if (primes[i].bitLength() > MAX_PRIME_BITS) {
+                throw new ArithmeticException("Cannot take logs at " + n + " bits - 2^" + n + " - 1 has the prime factor " + primes[i]);
+            }
+            factors[i] = new Factor(primes[i]);
+        }
+    }
+
+    /**
+     * The logs for these taps - built once.
+     *
+     * @throws ArithmeticException if 2^n - 1 has a prime factor we cannot cope with.
+     */
+    static DiscreteLog of(int n, long[] taps) {
+        return known.computeIfAbsent(Words.toBigInteger(taps), t -> new DiscreteLog(n, taps));
+    }
+
+    /**
+     * The log of h to the base taps.
+     *
+     * @param h - the value (not 0).
+     * @return k such that taps^k = h and 0 <= k < 2^n - 1 - or null if there isn't one, which can
+     * only happen if the taps are not primitive.
+     */
+    BigInteger log(long[] h) {
+        BigInteger k = BigInteger.ZERO;
+        for (Factor factor : factors) {
+            BigInteger residue = factor.log(h);
+            if (residue == null) {
+                return null;
+            }
+            k = k.add(residue.multiply(factor.crt));
+        }
+        k = k.mod(order);
+        // Only taps that are not primitive could get this wrong - so check.
+        return Arrays.equals(field.pow(taps, k), h) ? k : null;
+    }
+
+    /**
+     * Many logs - spread over all the cores.
+     *
+     * @param hs - the values - null gives null.
+     * @return their logs in the same order.
+     */
+    BigInteger[] logs(long[][] hs) {
+        return Arrays.stream(hs).parallel()
+                .map(h -> h == null ? null : log(h))
+                .toArray(BigInteger[]::new);
+    }
+
+    // A hash of a value - the value itself if it fits in a long.
+    private static long key(long[] value) {
+        long key = value[0];
+        for (int i = 1; i < value.length; i++) {
+            key = Long.rotateLeft(key, 29) ^ value[i] * 0x9E3779B97F4A7C15L;
+        }
+        return key;
+    }
+
+    /**
+     * The log modulo one prime power p^e dividing the order.
+     */
+    private final class Factor {
+        // The prime.
+        final BigInteger p;
+        // How many times it divides the order.
+        final int e;
+        // Multiply the log mod p^e by this and add them all up to get the log (mod order).
+        final BigInteger crt;
+        // taps^(order / p) - this has order p.
+        private final long[] gamma;
+        // The baby steps - built when first needed.
+        private Steps steps = null;
+
+        Factor(BigInteger p) {
+            this.p = p;
+            int e = 0;
+            BigInteger rest = order;
+            while (rest.mod(p).signum() == 0) {
+                rest = rest.divide(p);
+                e += 1;
+            }
+            this.e = e;
+            // rest is order / p^e - so this is 1 mod p^e and 0 mod everything else.
+            crt = rest.multiply(rest.modInverse(p.pow(e)));
+            gamma = field.pow(taps, order.divide(p));
+        }
+
+        /**
+         * The log of h mod p^e - a digit base p at a time.
+         *
+         * If h = taps^k then (h / taps^(the digits we have so far))^(order / p^(i+1)) is gamma
+         * to the power of digit i.
+         */
+        BigInteger log(long[] h) {
+            BigInteger k = BigInteger.ZERO;
+            BigInteger pi = BigInteger.ONE;
+            for (int i = 0; i < e; i++) {
+                long[] rest = k.signum() == 0 ? h : field.multiply(h, field.pow(taps, order.subtract(k)));
+                long digit = steps().log(field.pow(rest, order.divide(pi.multiply(p))));
+                if (digit < 0) {
+                    return null;
+                }
+                k = k.add(pi.multiply(BigInteger.valueOf(digit)));
+                pi = pi.multiply(p);
+            }
+            return k;
+        }
+
+        synchronized Steps steps() {
+            if (steps == null) {
+                steps = new Steps(gamma, p.longValue());
+            }
+            return steps;
+        }
+    }
+
+    /**
+     * Baby-step giant-step for logs to the base gamma which has order p.
+     *
+     * The baby steps gamma^j for j < m go in a hash table. Then t, t / gamma^m, t / gamma^2m ...
+     * until one is in the table - if t / gamma^im = gamma^j the log is im + j.
+     *
+     * m is at least sqrt(p) but as the table is kept we make it bigger (up to MAX_BABY) to cut
+     * the giant steps on every log.
+     */
+    private final class Steps {
+        // The base.
+        private final long[] gamma;
+        // Its order.
+        private final long p;
+        // How many baby steps.
+        private final int m;
+        // How many giant steps before we have covered everything.
+        private final long giants;
+        // Multiply by gamma^-m - the giant step.
+        private final long[][] giant;
+        // Open addressing - the key of gamma^j and j + 1 (0 is empty).
+        private final long[] keys;
+        private final int[] babies;
+
+        Steps(long[] gamma, long p) {
+            this.gamma = gamma;
+            this.p = p;
+            long root = (long) Math.sqrt(p);
+            while (root * root < p) {
+                root += 1;
+            }
+            m = (int) Math.min(Math.max(root, (p + GIANTS - 1) / GIANTS), MAX_BABY);
+            giants = (p + m - 1) / m;
+            giant = field.comb(field.pow(gamma, BigInteger.valueOf(p - m % p)));
+            keys = new long[Integer.highestOneBit(m) * 4];
+            babies = new int[keys.length];
+            long[][] times = field.comb(gamma);
+            long[] baby = field.one();
+            for (int j = 0; j < m; j++) {
+                long key = key(baby);
+                int slot = slot(key);
+                while (babies[slot] != 0) {
+                    slot = (slot + 1) & (keys.length - 1);
+                }
+                keys[slot] = key;
+                babies[slot] = j + 1;
+                baby = field.multiply(baby, times);
+            }
+        }
+
+        /**
+         * The log of t.
+         *
+         * @return the log - or -1 if t is not a power of gamma.
+         */
+        long log(long[] t) {
+            long[] at = t;
+            for (long i = 0; i < giants; i++) {
+                long key = key(at);
+                for (int slot = slot(key); babies[slot] != 0; slot = (slot + 1) & (keys.length - 1)) {
+                    // Beyond a long the key is just a hash so make sure.
+                    if (keys[slot] == key && (at.length == 1 || Arrays.equals(field.pow(gamma, BigInteger.valueOf(babies[slot] - 1)), at))) {
+                        return (i * m + babies[slot] - 1) % p;
+                    }
+                }
+                at = field.multiply(at, giant);
+            }
+            return -1;
+        }
+
+        // Where to start looking for a key.
+        private int slot(long key) {
+            return (int) ((key * 0x9E3779B97F4A7C15L) >>> (Long.SIZE - Integer.numberOfTrailingZeros(keys.length)));
+        }
+    }
+}
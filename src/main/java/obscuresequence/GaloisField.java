@@ -0,0 +1,389 @@
+/*
+ * Copyright 2017 OldCurmudgeon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package obscuresequence;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The arithmetic behind a Galois LFSR.
+ *
+ * Treat bit i of the register as the coefficient of y^i and let q(y) be the polynomial with
+ * the constant term set plus y^t for each tap t. One step of the LFSR (shift right, xor the
+ * taps if a 1 fell out) is then exactly multiplication by y^-1 modulo q - and y^-1 is just the
+ * taps value itself because y * taps = q - 1.
+ *
+ * So the value m steps after s is s * taps^m mod q which we can get in O(log m) multiplications.
+ *
+ * Values are little-endian words as in Words. Arrays passed in are never modified.
+ */
+final class GaloisField {
+    // The bit width.
+    final int n;
+    // The taps - which is also the multiplier for one step.
+    private final long[] taps;
+    // The low n bits of q - y^n is congruent to this.
+    private final long[] reduce;
+    // Mask for the top word.
+    private final long topMask;
+    // The bits set in reduce.
+    private final int[] terms;
+
+    GaloisField(int n, long[] taps) {
+        this.n = n;
+        this.taps = taps.clone();
+        int words = Words.count(n);
+        topMask = n % Long.SIZE == 0 ? -1L : (1L << n) - 1;
+        // q - y^n = (taps << 1) | 1, dropping the top bit.
+        reduce = new long[words];
+        for (int i = words - 1; i > 0; i--) {
+            reduce[i] = (taps[i] << 1) | (taps[i - 1] >>> (Long.SIZE - 1));
+        }
+        reduce[0] = (taps[0] << 1) | 1;
+        reduce[words - 1] &= topMask;
+        terms = new int[Words.bitCount(reduce)];
+        for (int i = 0, bit = 0; i < terms.length; bit++) {
+            if ((reduce[bit / Long.SIZE] & (1L << bit)) != 0) {
+                terms[i++] = bit;
+            }
+        }
+    }
+
+    GaloisField(Integer[] taps) {
+        this(taps[0], tapWords(taps));
+    }
+
+    /**
+     * The taps as words - bit t-1 set for each tap t.
+     */
+    static long[] tapWords(Integer[] taps) {
+        long[] words = new long[Words.count(taps[0])];
+        for (Integer tap : taps) {
+            words[(tap - 1) / Long.SIZE] |= 1L << (tap - 1);
+        }
+        return words;
+    }
+
+    static long[] tapWords(int... taps) {
+        long[] words = new long[Words.count(taps[0])];
+        for (int tap : taps) {
+            words[(tap - 1) / Long.SIZE] |= 1L << (tap - 1);
+        }
+        return words;
+    }
+
+    /**
+     * The length of a maximum length sequence of this width - 2^n - 1.
+     */
+    BigInteger period() {
+        return BigInteger.ONE.shiftLeft(n).subtract(BigInteger.ONE);
+    }
+
+    /**
+     * The multiplier that moves the LFSR on by the specified number of steps.
+     *
+     * @param steps - how far (not negative).
+     * @return taps^steps mod q.
+     */
+    long[] stride(BigInteger steps) {
+        return pow(taps, steps);
+    }
+
+    /**
+     * Where the LFSR will be after the specified number of steps.
+     *
+     * @param state - where it is now.
+     * @param steps - how many steps forward.
+     * @return the new state.
+     */
+    long[] advance(long[] state, BigInteger steps) {
+        return multiply(state, stride(steps));
+    }
+
+    /**
+     * Where the LFSR will be after each of the specified numbers of steps.
+     *
+     * Cheaper than calling advance for each because the powers taps^(2^i) are only worked
+     * out once and we work through the steps in order, only multiplying up the differences.
+     *
+     * @param state - where it is now.
+     * @param steps - how many steps forward for each (not negative, any order).
+     * @return the states in the same order as steps.
+     */
+    long[][] advance(long[] state, BigInteger[] steps) {
+        Integer[] order = new Integer[steps.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparing(i -> steps[i]));
+        long[][] states = new long[steps.length][];
+        // taps^(2^i) - grown as needed.
+        List<long[]> squares = new ArrayList<>();
+        squares.add(taps);
+        long[] current = state;
+        BigInteger at = BigInteger.ZERO;
+        for (Integer i : order) {
+            BigInteger gap = steps[i].subtract(at);
+            if (gap.signum() < 0) {
+                throw new IllegalArgumentException("Negative steps " + steps[i]);
+            }
+            while (squares.size() < gap.bitLength()) {
+                long[] last = squares.get(squares.size() - 1);
+                squares.add(multiply(last, last));
+            }
+            for (int bit = 0; bit < gap.bitLength(); bit++) {
+                if (gap.testBit(bit)) {
+                    current = multiply(current, squares.get(bit));
+                }
+            }
+            at = steps[i];
+            states[i] = current;
+        }
+        return states;
+    }
+
+    /**
+     * a * b mod q.
+     *
+     * A comb - b times each of the 16 polynomials of degree below 4 is worked out first and then
+     * we go down a 4 bits at a time, taking 4 bits from every word of a on each pass. The
+     * product is folded back down at the end.
+     */
+    long[] multiply(long[] a, long[] b) {
+        return multiply(a, comb(b));
+    }
+
+    // b times u for each 4 bit u - up to n + 3 bits so one more word.
+    long[][] comb(long[] b) {
+        int words = reduce.length;
+        long[][] times = new long[16][words + 1];
+        System.arraycopy(b, 0, times[1], 0, words);
+        for (int u = 2; u < 16; u++) {
+            if ((u & 1) == 0) {
+                long[] half = times[u >>> 1];
+                for (int w = words; w > 0; w--) {
+                    times[u][w] = (half[w] << 1) | (half[w - 1] >>> (Long.SIZE - 1));
+                }
+                times[u][0] = half[0] << 1;
+            } else {
+                for (int w = 0; w <= words; w++) {
+                    times[u][w] = times[u - 1][w] ^ times[1][w];
+                }
+            }
+        }
+        return times;
+    }
+
+    // a times the b that made the comb.
+    long[] multiply(long[] a, long[][] times) {
+        int words = reduce.length;
+        long[] wide = new long[2 * words + 1];
+        for (int shift = Long.SIZE - 4; shift >= 0; shift -= 4) {
+            for (int i = 0; i < words; i++) {
+                int u = (int) (a[i] >>> shift) & 15;
+                if (u != 0) {
+                    long[] t = times[u];
+                    for (int w = 0; w <= words; w++) {
+                        wide[i + w] ^= t[w];
+                    }
+                }
+            }
+            if (shift > 0) {
+                for (int w = wide.length - 1; w > 0; w--) {
+                    wide[w] = (wide[w] << 4) | (wide[w - 1] >>> (Long.SIZE - 4));
+                }
+                wide[0] <<= 4;
+            }
+        }
+        return fold(wide);
+    }
+
+    /**
+     * a^2 mod q.
+     *
+     * Squaring is linear over GF(2) - bit i just moves to bit 2i - so all the work is in
+     * folding the top half back down.
+     */
+    long[] square(long[] a) {
+        long[] wide = new long[2 * reduce.length];
+        for (int i = 0; i < reduce.length; i++) {
+            wide[2 * i] = spread(a[i] & 0xFFFFFFFFL);
+            wide[2 * i + 1] = spread(a[i] >>> Integer.SIZE);
+        }
+        return fold(wide);
+    }
+
+    /**
+     * Is a a unit - does it have no factor in common with q.
+     *
+     * Euclid - knocking the top bit off the bigger one with the other shifted up to meet it.
+     */
+    boolean isUnit(long[] a) {
+        long[] u = Arrays.copyOf(a, Words.count(n + 1));
+        long[] v = Arrays.copyOf(reduce, u.length);
+        v[n / Long.SIZE] |= 1L << n;
+        int du = degree(u, n - 1);
+        int dv = n;
+        while (du > 0 && dv > 0) {
+            if (du < dv) {
+                long[] t = u;
+                u = v;
+                v = t;
+                int d = du;
+                du = dv;
+                dv = d;
+            }
+            xorShifted(u, v, du - dv);
+            du = degree(u, du - 1);
+        }
+        // One of them is 0 or 1 - the other is the gcd if it is 0.
+        return du == 0 || dv == 0;
+    }
+
+    // The highest bit set at or below from - -1 if none.
+    private static int degree(long[] a, int from) {
+        for (int w = from / Long.SIZE; w >= 0 && from >= 0; w--) {
+            long word = a[w] & (-1L >>> (Long.SIZE - 1 - from % Long.SIZE));
+            if (word != 0) {
+                return w * Long.SIZE + Long.SIZE - 1 - Long.numberOfLeadingZeros(word);
+            }
+            from = w * Long.SIZE - 1;
+        }
+        return -1;
+    }
+
+    // a ^= b << by.
+    private static void xorShifted(long[] a, long[] b, int by) {
+        int words = by / Long.SIZE;
+        int bits = by % Long.SIZE;
+        for (int w = a.length - 1; w >= words; w--) {
+            long shifted = b[w - words] << bits;
+            if (bits != 0 && w - words > 0) {
+                shifted |= b[w - words - 1] >>> (Long.SIZE - bits);
+            }
+            a[w] ^= shifted;
+        }
+    }
+
+    /*
+     * Fold everything from y^n up back down - y^i = y^(i-n) * (q - y^n) - and drop the top half.
+     *
+     * If all the terms of q are at least a word below y^n each word folds straight down below
+     * itself so we can do a word at a time. Otherwise it is a bit at a time from the top.
+     */
+    private long[] fold(long[] wide) {
+        int low = n / Long.SIZE;
+        if (terms[terms.length - 1] < n - Long.SIZE) {
+            for (int w = wide.length - 1; w >= low; w--) {
+                long x = w == low ? wide[w] & (-1L << n) : wide[w];
+                if (x != 0) {
+                    wide[w] ^= x;
+                    for (int term : terms) {
+                        xorAt(wide, x, w * Long.SIZE - n + term);
+                    }
+                }
+            }
+        } else {
+            for (int w = wide.length - 1; w >= low; w--) {
+                for (long x = w == low ? wide[w] & (-1L << n) : wide[w]; x != 0; x = w == low ? wide[w] & (-1L << n) : wide[w]) {
+                    int i = w * Long.SIZE + Long.SIZE - 1 - Long.numberOfLeadingZeros(x);
+                    wide[w] ^= 1L << i;
+                    for (int term : terms) {
+                        int bit = i - n + term;
+                        wide[bit / Long.SIZE] ^= 1L << bit;
+                    }
+                }
+            }
+        }
+        return Arrays.copyOf(wide, reduce.length);
+    }
+
+    // a ^= x << at - at may be a little negative.
+    private static void xorAt(long[] a, long x, int at) {
+        if (at < 0) {
+            a[0] ^= x >>> -at;
+        } else {
+            a[at / Long.SIZE] ^= x << at;
+            if (at % Long.SIZE != 0) {
+                a[at / Long.SIZE + 1] ^= x >>> (Long.SIZE - at % Long.SIZE);
+            }
+        }
+    }
+
+    // The low 32 bits moved to the even bits.
+    private static long spread(long x) {
+        x = (x | (x << 16)) & 0x0000FFFF0000FFFFL;
+        x = (x | (x << 8)) & 0x00FF00FF00FF00FFL;
+        x = (x | (x << 4)) & 0x0F0F0F0F0F0F0F0FL;
+        x = (x | (x << 2)) & 0x3333333333333333L;
+        return (x | (x << 1)) & 0x5555555555555555L;
+    }
+
+    /**
+     * a^e mod q.
+     *
+     * A sliding window - up to 4 bits of e at a time using the odd powers of a up to a^15.
+     */
+    long[] pow(long[] a, BigInteger e) {
+        if (e.signum() < 0) {
+            throw new IllegalArgumentException("Negative exponent " + e);
+        }
+        // a^1, a^3, ... a^15 - ready to multiply by.
+        long[][][] odd = new long[8][][];
+        long[][] squared = comb(square(a));
+        long[] power = a;
+        for (int i = 0; i < odd.length; i++) {
+            odd[i] = comb(power);
+            power = multiply(power, squared);
+        }
+        long[] result = one();
+        for (int i = e.bitLength() - 1; i >= 0; ) {
+            if (!e.testBit(i)) {
+                result = square(result);
+                i -= 1;
+            } else {
+                // The longest window from i down that ends in a 1.
+                int j = Math.max(i - 3, 0);
+                while (!e.testBit(j)) {
+                    j += 1;
+                }
+                int window = 0;
+                for (int k = i; k >= j; k--) {
+                    result = square(result);
+                    window = (window << 1) | (e.testBit(k) ? 1 : 0);
+                }
+                result = multiply(result, odd[window >>> 1]);
+                i = j - 1;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The polynomial 1.
+     */
+    long[] one() {
+        long[] one = new long[reduce.length];
+        one[0] = 1;
+        return one;
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2017 OldCurmudgeon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package obscuresequence;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.math.BigInteger;
+
+/**
+ * The outside of an instrumented chain - counts what comes out and times next().
+ *
+ * @see ObscureSequence#instrument(SequenceMetrics)
+ */
+class InstrumentedSequence extends ObscureSequence {
+    // Where the values come from.
+    final ObscureSequence source;
+    // Where we report.
+    private final SequenceMetrics.Stage stats;
+
+    InstrumentedSequence(ObscureSequence source, SequenceMetrics metrics) {
+        this.source = source;
+        stats = metrics.stage("0.out");
+        source.instrument(metrics, 1);
+    }
+
+    @Override
+    public boolean hasNext() {
+        return source.hasNext();
+    }
+
+    @Override
+    public BigInteger next() {
+        long start = System.nanoTime();
+        BigInteger next = source.next();
+        stats.latency(System.nanoTime() - start);
+        if (next != null) {
+            stats.produced(1);
+        }
+        return next;
+    }
+
+    @Override
+    public int fill(BigInteger[] dest, int off, int len) {
+        int filled = source.fill(dest, off, len);
+        stats.produced(filled);
+        return filled;
+    }
+
+    @Override
+    public int fill(long[] dest, int off, int len) {
+        int filled = source.fill(dest, off, len);
+        stats.produced(filled);
+        return filled;
+    }
+
+    @Override
+    public boolean nextWords(long[] words) {
+        if (source.nextWords(words)) {
+            stats.produced(1);
+            return true;
+        }
+        return false;
+    }
+
+    // Let the source jump if it can - it reports what it discards.
+    @Override
+    public ObscureSequence discard(Integer n) {
+        source.discard(n);
+        return this;
+    }
+
+    @Override
+    public ObscureSequence discard(BigInteger n) {
+        source.discard(n);
+        return this;
+    }
+
+    @Override
+    public int getWidth() {
+        return source.getWidth();
+    }
+
+    // The metrics are not part of the state.
+    @Override
+    void save(DataOutput out) throws IOException {
+        source.save(out);
+    }
+}
@@ -0,0 +1,418 @@
+/*
+ * Copyright 2017 OldCurmudgeon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package obscuresequence;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A sequence as a stream of bits - for one-time pads and the like.
+ *
+ * The bits are bit 0 of each value of the sequence in order, packed into bytes lowest bit
+ * first - so the first value supplies bit 0 of the first byte.
+ *
+ * An LFSR can do much better than one value per bit. In the Galois form the low bit of each
+ * value is the bit shifted out on the next step and with no taps below k the next k bits
+ * shifted out are just the low k bits of the register as it is now. All k steps can then be
+ * done in one go:
+ *
+ * s' = s >>> k ^ (for each tap t) b << (t - k) where b is the low k bits of s.
+ *
+ * Wide registers usually have no taps in the low words at all so k can be several whole words.
+ *
+ * @see ObscureSequence#keystream()
+ */
+public abstract class Keystream {
+    // Most bits we take in one go - leaves room in the accumulator for the odd bits of a byte.
+    static final int MAX_CHUNK = 56;
+    // Bits waiting to be packed into bytes - lowest first.
+    private long bits = 0;
+    // How many.
+    private int count = 0;
+    // Has the source finished.
+    private boolean finished = false;
+    // The bits from the last pull.
+    long chunk;
+
+    // Only the ones here.
+    Keystream() {
+    }
+
+    /**
+     * Fill with keystream bytes.
+     *
+     * @param dest - where to put them.
+     * @param off  - where to start in dest.
+     * @param len  - how many bytes.
+     * @return how many were written - less than len only if the sequence has finished. If the
+     * sequence runs out part way through a byte the missing bits are 0.
+     */
+    public int fill(byte[] dest, int off, int len) {
+        int filled = 0;
+        while (filled < len) {
+            if (count == 0 && !finished) {
+                // Nothing left over so whole bytes can go straight out.
+                filled += pullBytes(dest, off + filled, len - filled);
+                if (filled == len) {
+                    break;
+                }
+            }
+            // Top up to at least a byte.
+            while (count < Byte.SIZE && !finished) {
+                int got = pull();
+                if (got == 0) {
+                    finished = true;
+                } else {
+                    bits |= chunk << count;
+                    count += got;
+                }
+            }
+            if (count == 0) {
+                break;
+            }
+            // Whatever bytes we have - or the last few bits.
+            do {
+                dest[off + filled++] = (byte) bits;
+                bits >>>= Byte.SIZE;
+                count = Math.max(count - Byte.SIZE, 0);
+            } while (count >= Byte.SIZE && filled < len);
+        }
+        return filled;
+    }
+
+    public int fill(byte[] dest) {
+        return fill(dest, 0, dest.length);
+    }
+
+    /**
+     * Fill the remaining space in a buffer.
+     *
+     * @param dest - where to put them - the position moves on past them.
+     * @return how many bytes were written.
+     */
+    public int fill(ByteBuffer dest) {
+        if (dest.hasArray()) {
+            int filled = fill(dest.array(), dest.arrayOffset() + dest.position(), dest.remaining());
+            dest.position(dest.position() + filled);
+            return filled;
+        }
+        byte[] batch = new byte[Math.min(dest.remaining(), Sequence.BATCH * Long.BYTES)];
+        int filled = 0;
+        while (dest.hasRemaining()) {
+            int got = fill(batch, 0, Math.min(batch.length, dest.remaining()));
+            dest.put(batch, 0, got);
+            filled += got;
+            if (got < batch.length) {
+                break;
+            }
+        }
+        return filled;
+    }
+
+    /**
+     * Get the next few bits into chunk - lowest first.
+     *
+     * @return how many bits (no more than MAX_CHUNK) - 0 if finished.
+     */
+    abstract int pull();
+
+    /**
+     * Optionally - whole bytes straight into dest for as long as that is possible.
+     *
+     * @return how many bytes - the rest go through pull().
+     */
+    int pullBytes(byte[] dest, int off, int len) {
+        return 0;
+    }
+
+    /**
+     * Bit 0 of each value of any sequence.
+     */
+    static Keystream of(ObscureSequence source) {
+        return new Keystream() {
+            private final BigInteger[] batch = new BigInteger[MAX_CHUNK];
+
+            @Override
+            int pull() {
+                int got = source.fill(batch, 0, batch.length);
+                chunk = 0;
+                for (int i = 0; i < got; i++) {
+                    if (batch[i].testBit(0)) {
+                        chunk |= 1L << i;
+                    }
+                }
+                return got;
+            }
+        };
+    }
+
+    /**
+     * The fast path for a Galois LFSR.
+     *
+     * @param taps      - the taps - taps[0] is the width.
+     * @param state     - the next value.
+     * @param remaining - how many values are left.
+     */
+    static Keystream galois(Integer[] taps, BigInteger state, BigInteger remaining) {
+        int n = taps[0];
+        // As many as we can with no taps below - whole bytes if we can.
+        int k = MAX_CHUNK;
+        for (Integer tap : taps) {
+            k = Math.min(k, tap);
+        }
+        if (k > Byte.SIZE) {
+            k -= k % Byte.SIZE;
+        }
+        int[] shifts = new int[taps.length];
+        for (int i = 0; i < taps.length; i++) {
+            shifts[i] = taps[i] - k;
+        }
+        long left = remaining.bitLength() < Long.SIZE ? remaining.longValue() : Long.MAX_VALUE;
+        if (n <= Long.SIZE) {
+            return new LongGalois(state.longValue(), k, shifts, left);
+        }
+        int minTap = Arrays.stream(taps).mapToInt(Integer::intValue).min().getAsInt();
+        if (minTap < Long.SIZE) {
+            return new WideGalois(Words.fromBigInteger(state, n), k, shifts, left);
+        }
+        // Whole words at a time - as many as we can.
+        int words = minTap / Long.SIZE;
+        int[] wordShifts = new int[taps.length];
+        for (int i = 0; i < taps.length; i++) {
+            wordShifts[i] = taps[i] - words * Long.SIZE;
+        }
+        return new WordGalois(Words.fromBigInteger(state, n), words, wordShifts, left);
+    }
+
+    /**
+     * Up to 64 bits in a long.
+     */
+    private static final class LongGalois extends Keystream {
+        // The register.
+        private long state;
+        // How many bits per step and the mask for them.
+        private final int k;
+        private final long mask;
+        // Where the feedback goes - one per tap.
+        private final int[] shifts;
+        // How many values are left - Long.MAX_VALUE for as good as forever.
+        private long left;
+
+        LongGalois(long state, int k, int[] shifts, long left) {
+            this.state = state;
+            this.k = k;
+            this.mask = (1L << k) - 1;
+            this.shifts = shifts;
+            this.left = left;
+        }
+
+        @Override
+        int pull() {
+            if (left < k) {
+                // The last few.
+                chunk = state & ((1L << left) - 1);
+                int got = (int) left;
+                left = 0;
+                return got;
+            }
+            long b = state & mask;
+            long feedback = 0;
+            for (int shift : shifts) {
+                feedback ^= b << shift;
+            }
+            state = (state >>> k) ^ feedback;
+            chunk = b;
+            if (left != Long.MAX_VALUE) {
+                left -= k;
+            }
+            return k;
+        }
+
+        @Override
+        int pullBytes(byte[] dest, int off, int len) {
+            if (k % Byte.SIZE != 0) {
+                return 0;
+            }
+            int bytes = k / Byte.SIZE;
+            long steps = Math.min(len / bytes, left / k);
+            // Same as pull but all in locals.
+            long s = state;
+            int filled = 0;
+            for (long step = 0; step < steps; step++) {
+                long b = s & mask;
+                long feedback = 0;
+                for (int shift : shifts) {
+                    feedback ^= b << shift;
+                }
+                s = (s >>> k) ^ feedback;
+                for (int i = 0; i < bytes; i++) {
+                    dest[off + filled++] = (byte) (b >>> (i * Byte.SIZE));
+                }
+            }
+            state = s;
+            if (left != Long.MAX_VALUE) {
+                left -= steps * k;
+            }
+            return filled;
+        }
+    }
+
+    /**
+     * Wider - in words.
+     */
+    private static final class WideGalois extends Keystream {
+        // The register.
+        private final long[] state;
+        // How many bits per step and the mask for them.
+        private final int k;
+        private final long mask;
+        // Where the feedback goes - one per tap.
+        private final int[] shifts;
+        // How many values are left - Long.MAX_VALUE for as good as forever.
+        private long left;
+
+        WideGalois(long[] state, int k, int[] shifts, long left) {
+            this.state = state;
+            this.k = k;
+            this.mask = (1L << k) - 1;
+            this.shifts = shifts;
+            this.left = left;
+        }
+
+        @Override
+        int pull() {
+            if (left < k) {
+                chunk = state[0] & ((1L << left) - 1);
+                int got = (int) left;
+                left = 0;
+                return got;
+            }
+            long b = state[0] & mask;
+            // Shift the whole register right k.
+            int top = state.length - 1;
+            for (int w = 0; w < top; w++) {
+                state[w] = (state[w] >>> k) | (state[w + 1] << (Long.SIZE - k));
+            }
+            state[top] >>>= k;
+            // Feed back - b is never more than 56 bits so it spans at most two words.
+            for (int shift : shifts) {
+                int w = shift / Long.SIZE;
+                int bit = shift % Long.SIZE;
+                state[w] ^= b << bit;
+                if (bit != 0 && w < top) {
+                    state[w + 1] ^= b >>> (Long.SIZE - bit);
+                }
+            }
+            chunk = b;
+            if (left != Long.MAX_VALUE) {
+                left -= k;
+            }
+            return k;
+        }
+    }
+
+    /**
+     * Wide with no taps in the bottom word - whole words at a time.
+     */
+    private static final class WordGalois extends Keystream {
+        // Bits per pull - from the current block.
+        private static final int PULL = Integer.SIZE;
+        // The register.
+        private final long[] state;
+        // How many words per step.
+        private final int k;
+        // Where the feedback goes - one per tap.
+        private final int[] shifts;
+        // How many values are left - Long.MAX_VALUE for as good as forever.
+        private long left;
+        // The words from the last step.
+        private final long[] block;
+        // How far through them pull has got and how far it can go - in bits.
+        private int used = 0;
+        private int available = 0;
+
+        WordGalois(long[] state, int k, int[] shifts, long left) {
+            this.state = state;
+            this.k = k;
+            this.shifts = shifts;
+            this.left = left;
+            this.block = new long[k];
+        }
+
+        @Override
+        int pull() {
+            if (used == available) {
+                if (left == 0) {
+                    return 0;
+                }
+                step();
+                used = 0;
+                available = (int) Math.min(left, k * Long.SIZE);
+                if (left != Long.MAX_VALUE) {
+                    left -= available;
+                }
+            }
+            int got = Math.min(PULL, available - used);
+            chunk = (block[used / Long.SIZE] >>> (used % Long.SIZE)) & ((1L << got) - 1);
+            used += got;
+            return got;
+        }
+
+        @Override
+        int pullBytes(byte[] dest, int off, int len) {
+            if (used != available) {
+                // Finish the block through pull first.
+                return 0;
+            }
+            int bytes = k * Long.BYTES;
+            int filled = 0;
+            while (len - filled >= bytes && left >= k * Long.SIZE) {
+                step();
+                for (long word : block) {
+                    for (int i = 0; i < Long.BYTES; i++) {
+                        dest[off + filled++] = (byte) (word >>> (i * Byte.SIZE));
+                    }
+                }
+                if (left != Long.MAX_VALUE) {
+                    left -= k * Long.SIZE;
+                }
+            }
+            return filled;
+        }
+
+        // k * 64 steps at once - the low k words come out and the rest move down.
+        private void step() {
+            System.arraycopy(state, 0, block, 0, k);
+            System.arraycopy(state, k, state, 0, state.length - k);
+            Arrays.fill(state, state.length - k, state.length, 0);
+            // Feed back.
+            for (int shift : shifts) {
+                int w = shift / Long.SIZE;
+                int bit = shift % Long.SIZE;
+                for (int i = 0; i < k && w + i < state.length; i++) {
+                    state[w + i] ^= block[i] << bit;
+                    if (bit != 0 && w + i + 1 < state.length) {
+                        state[w + i + 1] ^= block[i] >>> (Long.SIZE - bit);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2017 OldCurmudgeon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package obscuresequence;
+
+import java.math.BigInteger;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Splits a run of an LFSR sequence in half by jumping straight to the middle.
+ *
+ * Each half generates with its own engine so they can run in parallel. Once we start
+ * generating we count in a long - nobody is going to get through more than 2^63 values.
+ */
+class LFSRSpliterator implements Spliterator<BigInteger> {
+    // Not worth splitting below this.
+    private static final BigInteger MIN_SPLIT = BigInteger.valueOf(Sequence.BATCH);
+    private static final BigInteger LONG_MAX = BigInteger.valueOf(Long.MAX_VALUE);
+    // The sequence we are covering - used for random access to positions.
+    private final GaloisLFSRSequence lfsr;
+    // The taps to build engines from.
+    private final Integer[] taps;
+    // Set if we can know our size exactly.
+    private int sized;
+    // Position of the first value we cover.
+    private BigInteger from;
+    // How many values we cover.
+    private BigInteger count;
+    // The engine - built when we start generating.
+    private ObscureSequence engine = null;
+    // How many the engine has delivered.
+    private long taken = 0;
+    // count as a long - saturated.
+    private long limit;
+
+    LFSRSpliterator(GaloisLFSRSequence lfsr, Integer[] taps, BigInteger from, BigInteger count) {
+        this.lfsr = lfsr;
+        this.taps = taps;
+        this.from = from;
+        this.count = count;
+        this.limit = saturate(count);
+        this.sized = sized(count);
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super BigInteger> action) {
+        if (taken >= limit) {
+            return false;
+        }
+        action.accept(engine().next());
+        taken += 1;
+        return true;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super BigInteger> action) {
+        if (taken >= limit) {
+            return;
+        }
+        ObscureSequence engine = engine();
+        BigInteger[] batch = new BigInteger[Sequence.BATCH];
+        while (taken < limit) {
+            int got = engine.fill(batch, 0, (int) Math.min(batch.length, limit - taken));
+            for (int i = 0; i < got; i++) {
+                action.accept(batch[i]);
+            }
+            taken += got;
+        }
+    }
+
+    /**
+     * Split off the first half.
+     */
+    @Override
+    public Spliterator<BigInteger> trySplit() {
+        BigInteger remaining = count.subtract(BigInteger.valueOf(taken));
+        if (remaining.compareTo(MIN_SPLIT) < 0) {
+            return null;
+        }
+        BigInteger half = remaining.shiftRight(1);
+        BigInteger here = from.add(BigInteger.valueOf(taken));
+        LFSRSpliterator prefix = new LFSRSpliterator(lfsr, taps, here, half);
+        // I keep the second half - with a new engine.
+        from = here.add(half);
+        count = remaining.subtract(half);
+        limit = saturate(count);
+        sized = sized(count);
+        taken = 0;
+        engine = null;
+        return prefix;
+    }
+
+    @Override
+    public long estimateSize() {
+        return limit - taken;
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | DISTINCT | NONNULL | IMMUTABLE | sized;
+    }
+
+    // Build my engine at my first position.
+    private ObscureSequence engine() {
+        if (engine == null) {
+            BigInteger start = lfsr.valueAt(from);
+            // No need to stop anywhere - we only run for count values.
+            engine = taps[0] <= Long.SIZE
+                    ? new LongGaloisLFSRSequence(taps, start.longValue())
+                    : new WideGaloisLFSRSequence(taps, start);
+        }
+        return engine;
+    }
+
+    // If we are sized then all our splits will be too.
+    private static int sized(BigInteger count) {
+        return count.compareTo(LONG_MAX) <= 0 ? SIZED | SUBSIZED : 0;
+    }
+
+    private static long saturate(BigInteger count) {
+        return count.compareTo(LONG_MAX) <= 0 ? count.longValue() : Long.MAX_VALUE;
+    }
+}
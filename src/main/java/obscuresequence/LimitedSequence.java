@@ -0,0 +1,114 @@
+/*
+ * Copyright 2017 OldCurmudgeon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package obscuresequence;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.Spliterator;
+
+/**
+ * Limits a sequence to a specific length.
+ *
+ * @see ObscureSequence#limit(long)
+ */
+class LimitedSequence extends ObscureSequence {
+    // Where the values come from.
+    final ObscureSequence source;
+    // How many to allow.
+    final long limit;
+    // How many we have delivered.
+    long count = 0;
+
+    LimitedSequence(ObscureSequence source, long limit) {
+        this.source = source;
+        this.limit = limit;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return source.hasNext() && count < limit;
+    }
+
+    @Override
+    public BigInteger next() {
+        if ( hasNext() ) {
+            count += 1;
+            return source.next();
+        }
+        return null;
+    }
+
+    @Override
+    public int fill(BigInteger[] dest, int off, int len) {
+        int filled = source.fill(dest, off, (int) Math.min(len, limit - count));
+        count += filled;
+        return filled;
+    }
+
+    @Override
+    public int fill(long[] dest, int off, int len) {
+        int filled = source.fill(dest, off, (int) Math.min(len, limit - count));
+        count += filled;
+        return filled;
+    }
+
+    @Override
+    public boolean nextWords(long[] words) {
+        if (count < limit && source.nextWords(words)) {
+            count += 1;
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    Spliterator<BigInteger> spliterator(long bound) {
+        // Let the source split if it can.
+        return source.spliterator(Math.min(bound, limit - count));
+    }
+
+    @Override
+    public int getWidth() {
+        return source.getWidth();
+    }
+
+    // Nothing to report - just pass it on.
+    @Override
+    void instrument(SequenceMetrics metrics, int depth) {
+        source.instrument(metrics, depth + 1);
+    }
+
+    @Override
+    void save(DataOutput out) throws IOException {
+        out.writeByte(Checkpoint.LIMITED);
+        out.writeLong(limit);
+        out.writeLong(count);
+        source.save(out);
+    }
+
+    static LimitedSequence restore(DataInput in) throws IOException {
+        long limit = in.readLong();
+        long count = in.readLong();
+        LimitedSequence limited = new LimitedSequence(Checkpoint.read(in), limit);
+        limited.count = count;
+        return limited;
+    }
+}
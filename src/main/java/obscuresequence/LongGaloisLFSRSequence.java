@@ -0,0 +1,443 @@
+/*
+ * Copyright 2017 OldCurmudgeon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package obscuresequence;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.stream.IntStream;
+
+/**
+ * A Galois LFSR for widths up to 64 bits that keeps its register in a long.
+ *
+ * Generates exactly the same sequence as a GaloisLFSRSequence with the same taps, start and
+ * stopBits but stepping does not allocate. Use nextLong() to stay on the primitive path, next()
+ * is still available so all of the ObscureSequence operators work as normal.
+ *
+ * NB: A 64-bit register uses the sign bit so values should be treated as unsigned.
+ *
+ * @see GaloisLFSRSequence
+ */
+public class LongGaloisLFSRSequence extends ObscureSequence {
+    // The bit width of the sequence.
+    private final int n;
+    // The Taps.
+    private final long taps;
+    // Where we started.
+    private final long start;
+    // Special stop - if the number of bits set hits this value. Used for slicing.
+    // Set to 0 to ignore as 0 is never returned by an LFSR.
+    private final int stopBits;
+    // The last one we returned.
+    private long last;
+    // The next one to return - only valid if haveNext.
+    private long next;
+    // Is next waiting to be delivered.
+    private boolean haveNext;
+    // Have we hit the end.
+    private boolean finished = false;
+    // Our position in the cycle - the index of the next value to deliver.
+    private long position = 0;
+    // The arithmetic for jumping - built when first needed.
+    private GaloisField field = null;
+    // Where we report.
+    private SequenceMetrics.Stage stats = SequenceMetrics.Stage.NONE;
+
+    public LongGaloisLFSRSequence(Integer[] taps, long start, int stopBits) {
+        if (taps == null) {
+            throw new IllegalArgumentException("No taps provided!");
+        }
+        if (taps[0] > Long.SIZE) {
+            throw new IllegalArgumentException("Too wide for a long: " + taps[0]);
+        }
+        // Keep track of the width.
+        this.n = taps[0];
+        // Begin and continue from the specified start value.
+        this.start = last = next = start;
+        haveNext = true;
+        // The taps value has all the bits set specified by the taps array
+        long tapBits = 0;
+        for (Integer tap : taps) {
+            tapBits |= 1L << (tap - 1);
+        }
+        this.taps = tapBits;
+        this.stopBits = stopBits;
+    }
+
+    public LongGaloisLFSRSequence(Integer[] taps, long start) {
+        this(taps, start, 0);
+    }
+
+    public LongGaloisLFSRSequence(int bits, long start) {
+        // Default to the same taps as GaloisLFSRSequence.
+        this(Taps.boxed(bits), start);
+    }
+
+    public LongGaloisLFSRSequence(Integer[] taps) {
+        // Default to start at 1.
+        this(taps, 1L);
+    }
+
+    public LongGaloisLFSRSequence(int... taps) {
+        // Box the array.
+        this(IntStream.of(taps).boxed().toArray(Integer[]::new));
+    }
+
+    public LongGaloisLFSRSequence(int bits) {
+        // Default to start at 1.
+        this(bits, 1L);
+    }
+
+    public LongGaloisLFSRSequence(int bits, long start, int stopBits) {
+        this(Taps.boxed(bits), start, stopBits);
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (!haveNext && !finished) {
+            // Galois form - shift right and xor with the taps if we shifted out a 1.
+            long candidate = (last >>> 1) ^ (-(last & 1) & taps);
+            // Never give them `start` again.
+            // Stop at stopBits.
+            if (candidate == start || Long.bitCount(candidate) == stopBits) {
+                finished = true;
+            } else {
+                next = candidate;
+                haveNext = true;
+            }
+        }
+        return haveNext;
+    }
+
+    /**
+     * The primitive equivalent of next().
+     *
+     * @return the next value in the sequence.
+     * @throws NoSuchElementException if the sequence is finished.
+     */
+    public long nextLong() {
+        if (!hasNext()) {
+            throw new NoSuchElementException("Sequence finished.");
+        }
+        stats.produced(1);
+        return step();
+    }
+
+    // Move on one - nextLong() without the checking or counting.
+    private long step() {
+        // Remember this one.
+        last = next;
+        // Don't deliver it again.
+        haveNext = false;
+        position += 1;
+        return last;
+    }
+
+    @Override
+    public int fill(long[] dest, int off, int len) {
+        if (len <= 0 || !hasNext()) {
+            return 0;
+        }
+        long value = next;
+        int filled = 0;
+        while (true) {
+            dest[off + filled++] = value;
+            if (filled == len) {
+                break;
+            }
+            // Same as hasNext.
+            long following = (value >>> 1) ^ (-(value & 1) & taps);
+            if (following == start || Long.bitCount(following) == stopBits) {
+                finished = true;
+                break;
+            }
+            value = following;
+        }
+        last = value;
+        haveNext = false;
+        position += filled;
+        stats.produced(filled);
+        return filled;
+    }
+
+    /**
+     * Can we step back - we can go back as far as start.
+     */
+    @Override
+    public boolean hasPrevious() {
+        return position != 0;
+    }
+
+    /**
+     * Step backwards - see GaloisLFSRSequence.previous.
+     */
+    @Override
+    public BigInteger previous() {
+        return hasPrevious() ? unsigned(previousLong()) : null;
+    }
+
+    /**
+     * The primitive equivalent of previous().
+     *
+     * @return the value before the current position.
+     * @throws NoSuchElementException if we are back at start.
+     */
+    public long previousLong() {
+        if (!hasPrevious()) {
+            throw new NoSuchElementException("Back at start.");
+        }
+        stats.produced(1);
+        return unstep();
+    }
+
+    // Move back one - previousLong() without the checking or counting.
+    private long unstep() {
+        // Whatever was next - last is the one before.
+        next = haveNext ? unstep(next) : last;
+        haveNext = true;
+        finished = false;
+        position -= 1;
+        return next;
+    }
+
+    // The value before - undo the tap if it happened (it sets the top bit) and shift back.
+    private long unstep(long value) {
+        return (value >>> (n - 1) & 1) != 0 ? ((value ^ taps) << 1) | 1 : value << 1;
+    }
+
+    @Override
+    int fillPrevious(long[] dest, int off, int len) {
+        if (len <= 0 || !hasPrevious()) {
+            return 0;
+        }
+        long value = unstep();
+        dest[off] = value;
+        // No further back than start - position is unsigned.
+        int filled = 1 + (int) Math.min(len - 1, Long.compareUnsigned(position, len) < 0 ? position : len);
+        for (int i = 1; i < filled; i++) {
+            value = unstep(value);
+            dest[off + i] = value;
+        }
+        next = value;
+        position -= filled - 1;
+        stats.produced(filled);
+        return filled;
+    }
+
+    /**
+     * A view of this sequence going backwards from here - see previous().
+     *
+     * @return the reversed view.
+     */
+    public ObscureSequence reversed() {
+        return new ReversedSequence(this);
+    }
+
+    @Override
+    boolean skipsEvens() {
+        return true;
+    }
+
+    /**
+     * Only the odd values - stepping straight over each run of even ones.
+     *
+     * After an odd value comes (value >>> 1) ^ taps and if that is even the values after it are
+     * just it shifted right 'till its lowest set bit reaches bit 0. The bit count does not change
+     * along the run so stopBits can only stop us at the start of one - start could be anywhere.
+     */
+    @Override
+    int fillOdd(long[] dest, int off, int len, SequenceMetrics.Stage rejects) {
+        if (len <= 0 || !hasNext()) {
+            return 0;
+        }
+        long value = next;
+        long skipped = 0;
+        int filled = 0;
+        while (true) {
+            int run = Long.numberOfTrailingZeros(value);
+            if (run > 0) {
+                // Do we end in the run - is start one of value >>> 1 .. value >>> run?
+                int d = Long.numberOfLeadingZeros(start) - Long.numberOfLeadingZeros(value);
+                if (d > 0 && d <= run && value >>> d == start) {
+                    skipped += d;
+                    // For previous.
+                    last = value >>> (d - 1);
+                    finished = true;
+                    break;
+                }
+                value >>>= run;
+                skipped += run;
+            }
+            dest[off + filled++] = value;
+            last = value;
+            if (filled == len) {
+                break;
+            }
+            // Same as hasNext.
+            long following = (value >>> 1) ^ (-(value & 1) & taps);
+            if (following == start || Long.bitCount(following) == stopBits) {
+                finished = true;
+                break;
+            }
+            value = following;
+        }
+        haveNext = false;
+        position += filled + skipped;
+        stats.produced(filled + skipped);
+        rejects.rejected(skipped);
+        return filled;
+    }
+
+    @Override
+    boolean nextOddWords(long[] words, SequenceMetrics.Stage rejects) {
+        if (fillOdd(words, 0, 1, rejects) == 0) {
+            return false;
+        }
+        Arrays.fill(words, 1, words.length, 0);
+        return true;
+    }
+
+    /**
+     * Jump forward - exactly as if nextLong() had been called that many times.
+     *
+     * NB: Like GaloisLFSRSequence.jump this assumes the taps are primitive and steps if stopBits is set.
+     *
+     * @param steps - how many values to skip.
+     * @return this.
+     */
+    public LongGaloisLFSRSequence jump(BigInteger steps) {
+        if (steps.signum() < 0) {
+            throw new IllegalArgumentException("Cannot jump backwards: " + steps);
+        }
+        if (steps.signum() == 0 || !hasNext()) {
+            return this;
+        }
+        if (stopBits != 0) {
+            // Cannot know if we pass a stop without looking.
+            long skipped = 0;
+            for (BigInteger i = BigInteger.ZERO; i.compareTo(steps) < 0 && hasNext(); i = i.add(BigInteger.ONE)) {
+                step();
+                skipped += 1;
+            }
+            stats.discarded(skipped);
+            return this;
+        }
+        // As many as there are left.
+        stats.discarded(saturated(steps.min(field().period().subtract(position()))));
+        BigInteger target = position().add(steps);
+        if (target.compareTo(field().period()) >= 0) {
+            // Off the end - just before start again.
+            haveNext = false;
+            finished = true;
+            last = unstep(start);
+            position = field().period().longValue();
+        } else {
+            next = field().advance(new long[]{next}, steps)[0];
+            // Fits - the period is less than 2^64.
+            position = target.longValue();
+        }
+        return this;
+    }
+
+    public LongGaloisLFSRSequence jump(long steps) {
+        return jump(BigInteger.valueOf(steps));
+    }
+
+    @Override
+    public ObscureSequence discard(Integer n) {
+        return discard(BigInteger.valueOf(n));
+    }
+
+    @Override
+    public ObscureSequence discard(BigInteger n) {
+        // Like stepping - discarding a negative number does nothing (jump would complain).
+        return n.signum() > 0 ? jump(n) : this;
+    }
+
+    /**
+     * Our position in the sequence - the index of the value the next call to next() will deliver.
+     *
+     * @return how many values have been delivered or skipped so far.
+     */
+    public BigInteger position() {
+        return unsigned(position);
+    }
+
+    // The arithmetic of my taps.
+    GaloisField field() {
+        if (field == null) {
+            field = new GaloisField(n, new long[]{taps});
+        }
+        return field;
+    }
+
+    @Override
+    public BigInteger next() {
+        return hasNext() ? unsigned(nextLong()) : null;
+    }
+
+    /**
+     * The width of the sequence.
+     *
+     * @return the number of bits in the register.
+     */
+    @Override
+    public int getWidth() {
+        return n;
+    }
+
+    @Override
+    void instrument(SequenceMetrics metrics, int depth) {
+        stats = metrics.stage(depth + ".galois");
+    }
+
+    @Override
+    void save(DataOutput out) throws IOException {
+        out.writeByte(Checkpoint.LONG_GALOIS);
+        Checkpoint.writeTaps(out, n, new long[]{taps});
+        out.writeLong(start);
+        out.writeInt(stopBits);
+        out.writeLong(last);
+        out.writeLong(next);
+        out.writeBoolean(haveNext);
+        out.writeBoolean(finished);
+        out.writeLong(position);
+    }
+
+    static LongGaloisLFSRSequence restore(DataInput in) throws IOException {
+        LongGaloisLFSRSequence lfsr = new LongGaloisLFSRSequence(Checkpoint.readTaps(in), in.readLong(), in.readInt());
+        lfsr.last = in.readLong();
+        lfsr.next = in.readLong();
+        lfsr.haveNext = in.readBoolean();
+        lfsr.finished = in.readBoolean();
+        lfsr.position = in.readLong();
+        return lfsr;
+    }
+
+    /**
+     * Treats the long as unsigned - only a 64-bit register will ever set the sign bit.
+     */
+    static BigInteger unsigned(long value) {
+        BigInteger big = BigInteger.valueOf(value & Long.MAX_VALUE);
+        return value < 0 ? big.setBit(Long.SIZE - 1) : big;
+    }
+}
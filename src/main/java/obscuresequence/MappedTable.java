@@ -0,0 +1,104 @@
+/*
+ * Copyright 2017 OldCurmudgeon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package obscuresequence;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Fixed width big-endian unsigned fields in a mapped file.
+ *
+ * Mapped in segments because one mapping cannot be more than 2GB. Each entry is one or more
+ * fields - a field of up to 8 bytes can be read as a long, a whole entry of any width as words.
+ *
+ * @see SliceCatalog
+ * @see SequenceFile
+ */
+class MappedTable {
+    // Whole entries per segment.
+    private static final int SEGMENT = 1 << 30;
+    private final long offset;
+    private final int entryBytes;
+    private final int fieldBytes;
+    private final long entries;
+    private final long perSegment;
+    private final MappedByteBuffer[] segments;
+
+    MappedTable(FileChannel channel, FileChannel.MapMode mode, long offset, int entryBytes, int fieldBytes, long entries) throws IOException {
+        this.offset = offset;
+        this.entryBytes = entryBytes;
+        this.fieldBytes = fieldBytes;
+        this.entries = entries;
+        perSegment = SEGMENT / entryBytes;
+        int count = (int) ((entries + perSegment - 1) / perSegment);
+        segments = new MappedByteBuffer[count];
+        for (int s = 0; s < count; s++) {
+            long size = Math.min(perSegment, entries - s * perSegment) * entryBytes;
+            segments[s] = channel.map(mode, offset + s * perSegment * entryBytes, size);
+        }
+    }
+
+    long get(long entry, int field) {
+        ByteBuffer segment = segments[(int) (entry / perSegment)];
+        int at = (int) (entry % perSegment) * entryBytes + field * fieldBytes;
+        long value = 0;
+        for (int b = 0; b < fieldBytes; b++) {
+            value = (value << Byte.SIZE) | (segment.get(at + b) & 0xFFL);
+        }
+        return value;
+    }
+
+    void put(long entry, int field, long value) {
+        ByteBuffer segment = segments[(int) (entry / perSegment)];
+        int at = (int) (entry % perSegment) * entryBytes + field * fieldBytes;
+        for (int b = fieldBytes - 1; b >= 0; b--) {
+            segment.put(at + b, (byte) value);
+            value >>>= Byte.SIZE;
+        }
+    }
+
+    /**
+     * A whole entry into words - lowest word first, as in Words.
+     */
+    void get(long entry, long[] words) {
+        ByteBuffer segment = segments[(int) (entry / perSegment)];
+        int at = (int) (entry % perSegment) * entryBytes;
+        for (int w = 0; w < words.length; w++) {
+            // Bytes of this word - counting back from the end of the entry.
+            long word = 0;
+            for (int b = Math.min(Long.BYTES, entryBytes - w * Long.BYTES) - 1; b >= 0; b--) {
+                word = (word << Byte.SIZE) | (segment.get(at + entryBytes - 1 - w * Long.BYTES - b) & 0xFFL);
+            }
+            words[w] = word;
+        }
+    }
+
+    // Where the next thing in the file goes.
+    long end() {
+        return offset + entries * entryBytes;
+    }
+
+    void force() {
+        for (MappedByteBuffer segment : segments) {
+            segment.force();
+        }
+    }
+}
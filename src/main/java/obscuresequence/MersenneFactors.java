@@ -0,0 +1,296 @@
+/*
+ * Copyright 2017 OldCurmudgeon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package obscuresequence;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The prime factors of 2^n - 1 - as far as we can get.
+ *
+ * 2^n - 1 is the product of the cyclotomic polynomials at 2 for each d dividing n, and the
+ * primes in the d'th are all 1 mod d (apart from perhaps one that divides d) which makes trial
+ * division cheap. What is left goes to Pollard rho.
+ *
+ * That is fine for most widths up to a hundred or so bits but 2^n - 1 often has two or more
+ * enormous prime factors so past that we may give up leaving some of it unfactored. The rho
+ * would almost certainly have found any factor below about 2^40 so anything left has only big
+ * prime factors.
+ *
+ * So we don't do that for the widths we ship - the factors of each cyclotomic factor up to 786,
+ * and those of 2^4096 - 1, are in mersenne-factors.txt. One line each - d then the primes, then
+ * P if what is left is prime or C if it is composite and we never managed to split it. Each
+ * factor is checked as it is used - it must divide and pass isProbablePrime - so a bad table
+ * fails rather than lies.
+ */
+final class MersenneFactors {
+    // Trial division goes this far.
+    static final int SMALL = 1 << 16;
+    // Pollard rho gives up after this many steps.
+    static final int RHO_STEPS = 1 << 18;
+    private static final BigInteger TWO = BigInteger.valueOf(2);
+    // The resource.
+    static final String TABLE = "mersenne-factors.txt";
+    // The table - by d, the rest of the line. Loaded by the holder so only if needed.
+    private static final class Table {
+        static final Map<Integer, String> FACTORS = load();
+    }
+    // Those we have done.
+    private static final Map<Integer, MersenneFactors> known = new ConcurrentHashMap<>();
+    // Which 2^n - 1.
+    final int n;
+    // The distinct prime factors we found - smallest first.
+    private final BigInteger[] primes;
+    // What we could not split - 1 if we found them all.
+    final BigInteger unfactored;
+
+    MersenneFactors(int n, BigInteger[] primes, BigInteger unfactored) {
+        this.n = n;
+        this.primes = primes;
+        this.unfactored = unfactored;
+    }
+
+    /**
+     * The factors of 2^n - 1 - worked out once.
+     */
+    static MersenneFactors of(int n) {
+        if (n < 1) {
+            throw new IllegalArgumentException("No 2^n - 1 for n = " + n);
+        }
+        return known.computeIfAbsent(n, MersenneFactors::factor);
+    }
+
+    BigInteger[] primes() {
+        return primes.clone();
+    }
+
+    /**
+     * Did we find them all.
+     */
+    boolean complete() {
+        return unfactored.equals(BigInteger.ONE);
+    }
+
+    // Split along the cyclotomic factors.
+    private static MersenneFactors factor(int n) {
+        TreeSet<BigInteger> primes = new TreeSet<>();
+        BigInteger unfactored = BigInteger.ONE;
+        for (int d = 2; d <= n; d++) {
+            if (n % d == 0) {
+                String known = Table.FACTORS.get(d);
+                BigInteger c = cyclotomic(d);
+                unfactored = unfactored.multiply(known != null ? known(c, d, known, primes) : split(c, d, primes));
+            }
+        }
+        return new MersenneFactors(n, primes.toArray(new BigInteger[0]), unfactored);
+    }
+
+    // Take the primes from the table.
+    private static BigInteger known(BigInteger c, int d, String known, TreeSet<BigInteger> primes) {
+        for (String factor : known.isEmpty() ? new String[0] : known.split(" ")) {
+            switch (factor) {
+                case "P":
+                    primes.add(prime(c, d));
+                    return BigInteger.ONE;
+                case "C":
+                    return c;
+                default:
+                    BigInteger p = new BigInteger(factor);
+                    if (c.mod(p).signum() != 0) {
+                        throw new IllegalStateException(TABLE + " says " + p + " divides the cyclotomic factor " + d + " of 2^n - 1 - it doesn't.");
+                    }
+                    c = divideOut(c, prime(p, d), primes);
+            }
+        }
+        if (!c.equals(BigInteger.ONE)) {
+            throw new IllegalStateException(TABLE + " is missing some factors of the cyclotomic factor " + d + " of 2^n - 1.");
+        }
+        return c;
+    }
+
+    // Make sure a prime from the table is one - verify calls its answers proofs.
+    private static BigInteger prime(BigInteger p, int d) {
+        if (!p.isProbablePrime(64)) {
+            throw new IllegalStateException(TABLE + " says " + p + " in the cyclotomic factor " + d + " of 2^n - 1 is prime - it isn't.");
+        }
+        return p;
+    }
+
+    private static Map<Integer, String> load() {
+        Map<Integer, String> table = new HashMap<>();
+        try (InputStream in = MersenneFactors.class.getResourceAsStream(TABLE)) {
+            if (in == null) {
+                throw new IllegalStateException("Missing resource " + TABLE);
+            }
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            for (String s = reader.readLine(); s != null; s = reader.readLine()) {
+                s = s.trim();
+                if (!s.isEmpty() && !s.startsWith("#")) {
+                    int space = s.indexOf(' ');
+                    table.put(Integer.parseInt(space < 0 ? s : s.substring(0, space)), space < 0 ? "" : s.substring(space + 1).trim());
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return table;
+    }
+
+    // Add the primes in c (the d'th cyclotomic) - returning what we could not split.
+    private static BigInteger split(BigInteger c, int d, TreeSet<BigInteger> primes) {
+        // The largest prime factor of d may divide it.
+        for (int q = 2; q <= d; q++) {
+            if (d % q == 0 && isPrime(q)) {
+                c = divideOut(c, BigInteger.valueOf(q), primes);
+            }
+        }
+        // The rest are 1 mod 2d (1 mod d when d is even).
+        int step = d % 2 == 0 ? d : 2 * d;
+        for (long q = 1 + step; q < SMALL && c.compareTo(BigInteger.ONE) > 0; q += step) {
+            c = divideOut(c, BigInteger.valueOf(q), primes);
+        }
+        BigInteger unfactored = BigInteger.ONE;
+        Deque<BigInteger> todo = new ArrayDeque<>();
+        todo.push(c);
+        while (!todo.isEmpty()) {
+            BigInteger m = todo.pop();
+            if (m.equals(BigInteger.ONE)) {
+                continue;
+            }
+            if (m.isProbablePrime(64)) {
+                primes.add(m);
+                continue;
+            }
+            BigInteger f = rho(m, step);
+            if (f == null) {
+                unfactored = unfactored.multiply(m);
+            } else {
+                todo.push(f);
+                todo.push(m.divide(f));
+            }
+        }
+        return unfactored;
+    }
+
+    private static BigInteger divideOut(BigInteger c, BigInteger p, TreeSet<BigInteger> primes) {
+        while (c.mod(p).signum() == 0) {
+            primes.add(p);
+            c = c.divide(p);
+        }
+        return c;
+    }
+
+    /*
+     * Brent's Pollard rho - a non-trivial factor of m or null if we give up.
+     *
+     * The primes we are after are all 1 mod step so, as Pollard suggested for Mersenne numbers,
+     * we iterate x^step + c rather than x^2 + c. That only visits about p/step values mod p so
+     * we get round the cycle sqrt(step) times sooner.
+     */
+    private static BigInteger rho(BigInteger m, int step) {
+        BigInteger power = BigInteger.valueOf(step);
+        for (int c = 1; c < 4; c++) {
+            BigInteger add = BigInteger.valueOf(c);
+            BigInteger y = TWO;
+            BigInteger x = y;
+            BigInteger saved = y;
+            BigInteger product = BigInteger.ONE;
+            BigInteger g = BigInteger.ONE;
+            int steps = 0;
+            for (int r = 1; g.equals(BigInteger.ONE) && steps < RHO_STEPS; r *= 2) {
+                x = y;
+                for (int i = 0; i < r; i++) {
+                    y = y.modPow(power, m).add(add).mod(m);
+                }
+                for (int k = 0; k < r && g.equals(BigInteger.ONE); k += 128) {
+                    saved = y;
+                    for (int i = 0; i < Math.min(128, r - k); i++) {
+                        y = y.modPow(power, m).add(add).mod(m);
+                        product = product.multiply(x.subtract(y).abs()).mod(m);
+                    }
+                    g = product.gcd(m);
+                }
+                steps += 2 * r;
+            }
+            if (g.equals(BigInteger.ONE)) {
+                // Out of steps.
+                return null;
+            }
+            if (g.equals(m)) {
+                // Went past it - go back over the last lot one at a time.
+                do {
+                    saved = saved.modPow(power, m).add(add).mod(m);
+                    g = x.subtract(saved).abs().gcd(m);
+                } while (g.equals(BigInteger.ONE));
+            }
+            if (!g.equals(m)) {
+                return g;
+            }
+            // The cycles met together - try another c.
+        }
+        return null;
+    }
+
+    // The d'th cyclotomic polynomial at 2 - the product of (2^e - 1)^mobius(d/e) over e dividing d.
+    private static BigInteger cyclotomic(int d) {
+        BigInteger above = BigInteger.ONE;
+        BigInteger below = BigInteger.ONE;
+        for (int e = 1; e <= d; e++) {
+            if (d % e == 0) {
+                int mobius = mobius(d / e);
+                BigInteger m = BigInteger.ONE.shiftLeft(e).subtract(BigInteger.ONE);
+                if (mobius > 0) {
+                    above = above.multiply(m);
+                } else if (mobius < 0) {
+                    below = below.multiply(m);
+                }
+            }
+        }
+        return above.divide(below);
+    }
+
+    private static int mobius(int m) {
+        int mobius = 1;
+        for (int p = 2; p <= m; p++) {
+            if (m % p == 0) {
+                m /= p;
+                if (m % p == 0) {
+                    return 0;
+                }
+                mobius = -mobius;
+            }
+        }
+        return mobius;
+    }
+
+    private static boolean isPrime(int q) {
+        return BigInteger.valueOf(q).isProbablePrime(32);
+    }
+}
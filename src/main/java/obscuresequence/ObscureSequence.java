@@ -18,8 +18,14 @@
 
 package obscuresequence;
 
+import java.io.DataOutput;
+import java.io.IOException;
 import java.math.BigInteger;
 import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * The word Obscure here denotes "difficult to predict" rather than "weird".
@@ -44,46 +50,75 @@ public abstract class ObscureSequence extends Sequence {
      * @return the new sequence.
      */
     public ObscureSequence obscureBit(int bit) {
-        final ObscureSequence source = this;
-
-        return new ObscureSequence() {
-            // Mask to select bits to keep (those to the right of the one to remove).
-            private final BigInteger mask = BigInteger.ONE.shiftLeft(bit).subtract(BigInteger.ONE);
-            // The next one to deliver.
-            private BigInteger next = null;
-
-            @Override
-            public boolean hasNext() {
-                // Keep looking 'till we find one or the source runs out.
-                while (next == null && source.hasNext()) {
-                    BigInteger candidate = source.next();
-                    // That bit must be 1
-                    if (candidate.testBit(bit)) {
-                        // Retain the bits behind the mask.
-                        BigInteger masked = candidate.and(mask);
-                        // Remove that bit.
-                        next = candidate
-                                // Clear the bit we want to remove
-                                .clearBit(bit)
-                                // Mask out the lower bits
-                                .xor(masked)
-                                // Shift it right one.
-                                .shiftRight(1)
-                                // Recover the masked bits.
-                                .or(masked);
-                    }
-                }
-                return next != null;
-            }
-
-            @Override
-            public BigInteger next() {
-                BigInteger next = hasNext() ? this.next : null;
-                // Don't deliver that one again.
-                this.next = null;
-                return next;
-            }
-        };
+        return new ObscuredBitsSequence(this, BigInteger.ONE.shiftLeft(bit));
+    }
+
+    /**
+     * Obscure several bits in one pass.
+     *
+     * Only values with all of the bits set get through, and all of those bits are removed.
+     *
+     * NB: The bits are numbered as they are in MY values, so obscureBits(0, 5) is the same as
+     * obscureBit(5).obscureBit(0) - or obscureBit(0).obscureBit(4) because once bit 0 has gone
+     * bit 5 is bit 4.
+     *
+     * @param bits - The bits to remove (0 -> lowest).
+     * @return the new sequence - narrower by the number of bits removed.
+     */
+    public ObscureSequence obscureBits(int... bits) {
+        BigInteger mask = BigInteger.ZERO;
+        for (int bit : bits) {
+            mask = mask.setBit(bit);
+        }
+        return obscureMask(mask);
+    }
+
+    /**
+     * obscureBits with the bits as a mask.
+     *
+     * @param mask - The bits to remove.
+     * @return the new sequence - narrower by the number of bits in the mask.
+     */
+    public ObscureSequence obscureMask(BigInteger mask) {
+        return new ObscuredBitsSequence(this, mask);
+    }
+
+    /**
+     * Deliver the next value as little-endian 64-bit words rather than a BigInteger.
+     *
+     * This default just unpacks next(), engines that hold their state in words override it
+     * to avoid the BigInteger altogether.
+     *
+     * @param words - where to put it (words[0] gets the lowest 64 bits) - must be wide enough.
+     * @return false if the sequence is finished.
+     */
+    public boolean nextWords(long[] words) {
+        if (!hasNext()) {
+            return false;
+        }
+        Words.fromBigInteger(next(), words);
+        return true;
+    }
+
+    /**
+     * The most bits any value in the sequence can have.
+     *
+     * @return the width - or 0 if I don't know.
+     */
+    public int getWidth() {
+        return 0;
+    }
+
+    /**
+     * The rest of the sequence as a stream of bits - bit 0 of each value, packed into bytes.
+     *
+     * Takes over the sequence - don't use it directly afterwards.
+     *
+     * @return the keystream.
+     * @see Keystream
+     */
+    public Keystream keystream() {
+        return Keystream.of(this);
     }
 
     /**
@@ -96,6 +131,14 @@ public abstract class ObscureSequence extends Sequence {
         return new StaggeredSequence(this, permutation);
     }
 
+    public ObscureSequence stagger(long permutation) {
+        return new StaggeredSequence(this, permutation);
+    }
+
+    public ObscureSequence stagger(BigInteger permutation) {
+        return new StaggeredSequence(this, permutation);
+    }
+
     /**
      * Discard some.
      *
@@ -109,6 +152,56 @@ public abstract class ObscureSequence extends Sequence {
         return this;
     }
 
+    /**
+     * Discard lots.
+     *
+     * Sequences that can jump (the LFSRs) override this so it does not take forever.
+     *
+     * @param n - How many to discard.
+     * @return the same sequence.
+     */
+    public ObscureSequence discard(BigInteger n) {
+        for (BigInteger i = BigInteger.ZERO; i.compareTo(n) < 0 && hasNext(); i = i.add(BigInteger.ONE)) {
+            next();
+        }
+        return this;
+    }
+
+    /**
+     * A Spliterator over the rest of the sequence.
+     *
+     * By default it can only split by taking batches from this sequence. An LFSR can split
+     * properly by jumping (see GaloisLFSRSequence) and so can a limit directly on one.
+     *
+     * @return a Spliterator.
+     */
+    public Spliterator<BigInteger> spliterator() {
+        return spliterator(Long.MAX_VALUE);
+    }
+
+    /**
+     * A Spliterator over at most bound more values.
+     *
+     * @param bound - how many at most - Long.MAX_VALUE for no bound.
+     * @return a Spliterator.
+     */
+    Spliterator<BigInteger> spliterator(long bound) {
+        Iterator<BigInteger> values = bound < Long.MAX_VALUE ? limit(bound) : this;
+        return Spliterators.spliteratorUnknownSize(values, Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL);
+    }
+
+    /**
+     * Stream the rest of the sequence.
+     *
+     * Use stream().parallel() to spread the generation over all cores - this works best directly
+     * on an LFSR, e.g. new GaloisLFSRSequence(1024).limit(1000000).stream().parallel().
+     *
+     * @return a Stream of the values.
+     */
+    public Stream<BigInteger> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
     /**
      * Limit the sequence to a specific length.
      *
@@ -116,25 +209,118 @@ public abstract class ObscureSequence extends Sequence {
      * @return a limited iterator of the specified length.
      */
     public ObscureSequence limit(int limit) {
-        final ObscureSequence source = this;
-
-        return new ObscureSequence() {
-            int count = 0;
-
-            @Override
-            public boolean hasNext() {
-                return source.hasNext() && count < limit;
-            }
-
-            @Override
-            public BigInteger next() {
-                if ( hasNext() ) {
-                    count += 1;
-                    return source.next();
-                }
-                return null;
-            }
-        };
+        return limit((long) limit);
+    }
+
+    public ObscureSequence limit(long limit) {
+        return new LimitedSequence(this, limit);
+    }
+
+    /**
+     * Can I go straight to the odd values - see fillOdd.
+     */
+    boolean skipsEvens() {
+        return false;
+    }
+
+    /**
+     * For obscureBit(0) - like fill(long[]) but only the odd values.
+     *
+     * In the Galois form an even value is always followed by itself shifted right so the LFSRs
+     * can skip over a whole run of even values in one go rather than delivering each one to be
+     * thrown away. They are passed over exactly as if they had been delivered.
+     *
+     * Only if skipsEvens() - and only for values up to 64 bits wide.
+     *
+     * @param rejects - told how many even values were skipped.
+     */
+    int fillOdd(long[] dest, int off, int len, SequenceMetrics.Stage rejects) {
+        throw new UnsupportedOperationException("Cannot skip evens in a " + getClass().getName());
+    }
+
+    /**
+     * The next odd value as words - see fillOdd.
+     *
+     * @return false if the sequence is finished.
+     */
+    boolean nextOddWords(long[] words, SequenceMetrics.Stage rejects) {
+        throw new UnsupportedOperationException("Cannot skip evens in a " + getClass().getName());
+    }
+
+    /**
+     * Is there one before the last one delivered - the LFSRs can step backwards.
+     *
+     * Going backwards stops at start - i.e. at position 0.
+     */
+    boolean hasPrevious() {
+        return false;
+    }
+
+    /**
+     * Step back one - like ListIterator.previous this delivers the value before the current
+     * position and moves back over it so next() would deliver it again.
+     *
+     * @return the value or null if there are none before.
+     */
+    BigInteger previous() {
+        throw new UnsupportedOperationException("Cannot step back in a " + getClass().getName());
+    }
+
+    /**
+     * Like fill(long[]) but going backwards - dest[off] gets the value just before the position.
+     */
+    int fillPrevious(long[] dest, int off, int len) {
+        int filled = 0;
+        while (filled < len && hasPrevious()) {
+            dest[off + filled++] = toLong(previous());
+        }
+        return filled;
+    }
+
+    /**
+     * Like nextWords but going backwards.
+     *
+     * @return false if we are back at start.
+     */
+    boolean previousWords(long[] words) {
+        if (!hasPrevious()) {
+            return false;
+        }
+        Words.fromBigInteger(previous(), words);
+        return true;
+    }
+
+    /**
+     * Report what every stage of the chain is doing - see SequenceMetrics.
+     *
+     * Wraps the chain to count what comes out and time next() and hands each stage of the chain
+     * its own place to report. Stages outside this package just pass values through.
+     *
+     * @param metrics - where to report.
+     * @return the instrumented sequence.
+     */
+    public ObscureSequence instrument(SequenceMetrics metrics) {
+        return new InstrumentedSequence(this, metrics);
+    }
+
+    /**
+     * Take my stage from the metrics and pass them on to my source.
+     *
+     * @param metrics - where to report.
+     * @param depth   - how far into the chain I am - 0 is the outside.
+     */
+    void instrument(SequenceMetrics metrics, int depth) {
+    }
+
+    /**
+     * Write my state (and my source's) for a Checkpoint.
+     *
+     * Only the stages in this package know how - anything else cannot be saved.
+     *
+     * @param out - where to write it.
+     */
+    void save(DataOutput out) throws IOException {
+        throw new UnsupportedOperationException("Cannot checkpoint a " + getClass().getName());
     }
 
 }
@@ -0,0 +1,349 @@
+/*
+ * Copyright 2017 OldCurmudgeon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package obscuresequence;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.Arrays;
+
+/**
+ * Obscures a set of bits in one pass.
+ *
+ * Only values with all of the bits set get through and those bits are removed, the bits
+ * above each one moving down to close the gap. See ObscureSequence.obscureBit.
+ *
+ * The long path (fill(long[])) and the words path (nextWords) do not allocate.
+ *
+ * Obscuring just bit 0 of a Galois LFSR is special - every even value is followed by itself
+ * shifted right so we can step over each run of them in one go rather than reject them one at a
+ * time. See ObscureSequence.fillOdd.
+ */
+class ObscuredBitsSequence extends ObscureSequence {
+    // Where the values come from.
+    final ObscureSequence source;
+    // The bits to obscure.
+    final BigInteger mask;
+    // Their positions - lowest first.
+    private final int[] removed;
+    // The mask as a long - only used if fitsLong.
+    private final long longMask;
+    private final boolean fitsLong;
+    // The mask as words.
+    private final long[] maskWords;
+    // For the long path - segment i of the result is (value >>> i) & segments[i].
+    private final long[] segments;
+    // Just bit 0 of a source that can skip the evens.
+    private final boolean odd;
+    // The next one to deliver.
+    private BigInteger next = null;
+    // Scratch for batches from the source.
+    private long[] longs = null;
+    private BigInteger[] bigs = null;
+    private long[] words = null;
+    private long[] one = null;
+    // Where we report.
+    private SequenceMetrics.Stage stats = SequenceMetrics.Stage.NONE;
+
+    ObscuredBitsSequence(ObscureSequence source, BigInteger mask) {
+        if (mask.signum() < 0) {
+            throw new IllegalArgumentException("Cannot obscure negative bits: " + mask);
+        }
+        this.source = source;
+        this.mask = mask;
+        removed = new int[mask.bitCount()];
+        for (int i = 0; i < removed.length; i++) {
+            removed[i] = mask.getLowestSetBit();
+            mask = mask.clearBit(removed[i]);
+        }
+        fitsLong = this.mask.bitLength() <= Long.SIZE;
+        longMask = this.mask.longValue();
+        maskWords = Words.fromBigInteger(this.mask, this.mask.bitLength());
+        segments = new long[removed.length + 1];
+        for (int i = 0; i <= removed.length; i++) {
+            // Segment i lies between removed bit i-1 and removed bit i.
+            int lo = i == 0 ? 0 : removed[i - 1] + 1;
+            int hi = i == removed.length ? Long.SIZE : Math.min(removed[i], Long.SIZE);
+            if (hi > lo) {
+                long bits = hi - lo == Long.SIZE ? -1L : (1L << (hi - lo)) - 1;
+                // After shifting down by i.
+                segments[i] = bits << (lo - i);
+            }
+        }
+        odd = this.mask.equals(BigInteger.ONE) && source.skipsEvens();
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (odd) {
+            if (next == null) {
+                next = nextOdd();
+            }
+            return next != null;
+        }
+        // Keep looking 'till we find one or the source runs out.
+        while (next == null && source.hasNext()) {
+            BigInteger candidate = source.next();
+            if (passes(candidate)) {
+                next = remove(candidate);
+                stats.produced(1);
+            } else {
+                stats.rejected(1);
+            }
+        }
+        return next != null;
+    }
+
+    @Override
+    public BigInteger next() {
+        BigInteger next = hasNext() ? this.next : null;
+        // Don't deliver that one again.
+        this.next = null;
+        return next;
+    }
+
+    @Override
+    public int fill(BigInteger[] dest, int off, int len) {
+        int filled = 0;
+        if (len > 0 && next != null) {
+            dest[off + filled++] = next;
+            next = null;
+        }
+        if (odd) {
+            while (filled < len && hasNext()) {
+                dest[off + filled++] = next;
+                next = null;
+            }
+            return filled;
+        }
+        if (bigs == null) {
+            bigs = new BigInteger[BATCH];
+        }
+        while (filled < len) {
+            // Ask for as many as we still need - we will get fewer out.
+            int want = Math.min(len - filled, bigs.length);
+            int got = source.fill(bigs, 0, want);
+            int passed = 0;
+            for (int i = 0; i < got; i++) {
+                if (passes(bigs[i])) {
+                    dest[off + filled + passed++] = remove(bigs[i]);
+                }
+            }
+            filled += passed;
+            count(passed, got);
+            if (got < want) {
+                break;
+            }
+        }
+        return filled;
+    }
+
+    @Override
+    public int fill(long[] dest, int off, int len) {
+        if (!fitsLong) {
+            // Those bits are never all set in a long.
+            return super.fill(dest, off, len);
+        }
+        int filled = 0;
+        if (len > 0 && next != null) {
+            dest[off + filled++] = toLong(next);
+            next = null;
+        }
+        if (odd) {
+            if (source.getWidth() <= Long.SIZE) {
+                // Straight into dest - they all pass.
+                int got = source.fillOdd(dest, off + filled, len - filled, stats);
+                for (int i = off + filled; i < off + filled + got; i++) {
+                    dest[i] >>>= 1;
+                }
+                stats.produced(got);
+                return filled + got;
+            }
+            // One bit too wide for the source to fill longs - go through words.
+            if (one == null) {
+                one = new long[1];
+            }
+            while (filled < len && nextWords(one)) {
+                dest[off + filled++] = one[0];
+            }
+            return filled;
+        }
+        if (longs == null) {
+            longs = new long[BATCH];
+        }
+        while (filled < len) {
+            // Ask for as many as we still need - we will get fewer out.
+            int want = Math.min(len - filled, longs.length);
+            int got = source.fill(longs, 0, want);
+            int passed = 0;
+            for (int i = 0; i < got; i++) {
+                long candidate = longs[i];
+                if ((candidate & longMask) == longMask) {
+                    dest[off + filled + passed++] = remove(candidate);
+                }
+            }
+            filled += passed;
+            count(passed, got);
+            if (got < want) {
+                break;
+            }
+        }
+        return filled;
+    }
+
+    @Override
+    public boolean nextWords(long[] dest) {
+        if (next != null) {
+            Words.fromBigInteger(next(), dest);
+            return true;
+        }
+        // The source values are wider than ours by the bits we remove.
+        int needed = Math.max(Words.count(dest.length * Long.SIZE + removed.length), maskWords.length);
+        if (words == null || words.length != needed) {
+            words = new long[needed];
+        }
+        if (odd) {
+            if (!source.nextOddWords(words, stats)) {
+                return false;
+            }
+            remove(words, dest);
+            stats.produced(1);
+            return true;
+        }
+        while (source.nextWords(words)) {
+            if (passes(words)) {
+                remove(words, dest);
+                stats.produced(1);
+                return true;
+            }
+            stats.rejected(1);
+        }
+        return false;
+    }
+
+    @Override
+    void instrument(SequenceMetrics metrics, int depth) {
+        stats = metrics.stage(depth + ".obscureBits");
+        source.instrument(metrics, depth + 1);
+    }
+
+    // The next odd value from the source with bit 0 removed.
+    private BigInteger nextOdd() {
+        if (source.getWidth() <= Long.SIZE) {
+            if (longs == null) {
+                longs = new long[BATCH];
+            }
+            if (source.fillOdd(longs, 0, 1, stats) == 0) {
+                return null;
+            }
+            stats.produced(1);
+            return LongGaloisLFSRSequence.unsigned(longs[0] >>> 1);
+        }
+        if (words == null || words.length != Words.count(source.getWidth())) {
+            words = new long[Words.count(source.getWidth())];
+        }
+        if (!source.nextOddWords(words, stats)) {
+            return null;
+        }
+        stats.produced(1);
+        return Words.toBigInteger(words).shiftRight(1);
+    }
+
+    // A batch - passed of got.
+    private void count(int passed, int got) {
+        stats.produced(passed);
+        stats.rejected(got - passed);
+    }
+
+    @Override
+    public int getWidth() {
+        return source.getWidth() == 0 ? 0 : source.getWidth() - removed.length;
+    }
+
+    @Override
+    void save(DataOutput out) throws IOException {
+        out.writeByte(Checkpoint.OBSCURED_BITS);
+        Checkpoint.writeBig(out, mask);
+        Checkpoint.writeBig(out, next);
+        source.save(out);
+    }
+
+    static ObscuredBitsSequence restore(DataInput in) throws IOException {
+        BigInteger mask = Checkpoint.readBig(in);
+        BigInteger next = Checkpoint.readBig(in);
+        ObscuredBitsSequence obscured = new ObscuredBitsSequence(Checkpoint.read(in), mask);
+        obscured.next = next;
+        return obscured;
+    }
+
+    // Are all the bits set.
+    private boolean passes(BigInteger candidate) {
+        for (int bit : removed) {
+            if (!candidate.testBit(bit)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean passes(long[] candidate) {
+        for (int i = 0; i < maskWords.length; i++) {
+            if ((candidate[i] & maskWords[i]) != maskWords[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Remove the bits - each segment between them moves down by the number of bits removed below it.
+    private BigInteger remove(BigInteger candidate) {
+        if (removed.length == 0) {
+            return candidate;
+        }
+        // Retain the bits below the lowest.
+        BigInteger result = candidate.and(BigInteger.ONE.shiftLeft(removed[0]).subtract(BigInteger.ONE));
+        for (int i = 1; i < removed.length; i++) {
+            int lo = removed[i - 1] + 1;
+            BigInteger segment = candidate.shiftRight(lo).and(BigInteger.ONE.shiftLeft(removed[i] - lo).subtract(BigInteger.ONE));
+            result = result.or(segment.shiftLeft(lo - i));
+        }
+        // Everything above the top one.
+        int top = removed[removed.length - 1] + 1;
+        return result.or(candidate.shiftRight(top).shiftLeft(top - removed.length));
+    }
+
+    private long remove(long candidate) {
+        long result = 0;
+        for (int i = 0; i < segments.length; i++) {
+            result |= (candidate >>> i) & segments[i];
+        }
+        return result;
+    }
+
+    private void remove(long[] candidate, long[] dest) {
+        Arrays.fill(dest, 0);
+        int width = candidate.length * Long.SIZE;
+        for (int i = 0; i <= removed.length; i++) {
+            int lo = i == 0 ? 0 : removed[i - 1] + 1;
+            int hi = i == removed.length ? width : removed[i];
+            Words.copyBits(candidate, lo, dest, lo - i, hi - lo);
+        }
+    }
+}
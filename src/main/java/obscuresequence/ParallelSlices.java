@@ -0,0 +1,261 @@
+/*
+ * Copyright 2017 OldCurmudgeon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package obscuresequence;
+
+import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+
+/**
+ * Runs the slices of a SlicedSequence in a ForkJoinPool.
+ *
+ * We only know where a slice ends by looking for the next k-bit value so each slice is
+ * scanned first. The scan is cheap (no BigIntegers) and has no side effects so for long
+ * slices we scan ahead in parallel and throw away anything past the end.
+ *
+ * Once we know the length the slice can be cut into runs that are handed to the work
+ * in parallel.
+ *
+ * @see SlicedSequence#forEachSlice
+ */
+final class ParallelSlices<R> {
+    // Slices longer than this are split into runs this long - also the size of a scan chunk.
+    static final int SPLIT = 1 << 16;
+    // The width.
+    private final int n;
+    // The bits set at a slice boundary.
+    private final int k;
+    // The taps of the sequence being sliced.
+    private final Integer[] taps;
+    private final Function<ObscureSequence, R> work;
+    private final BinaryOperator<R> combine;
+    private final BiConsumer<BigInteger, R> onSlice;
+    // Back pressure - a permit for each slice in flight.
+    private final int maxInFlight;
+    private final Semaphore inFlight;
+    // The first thing to go wrong.
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    ParallelSlices(int n, int k, int maxInFlight,
+                   Function<ObscureSequence, R> work,
+                   BinaryOperator<R> combine,
+                   BiConsumer<BigInteger, R> onSlice) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("Must allow at least one slice in flight: " + maxInFlight);
+        }
+        this.n = n;
+        this.k = k;
+        this.taps = Taps.boxed(n);
+        this.maxInFlight = maxInFlight;
+        this.inFlight = new Semaphore(maxInFlight);
+        this.work = work;
+        this.combine = combine;
+        this.onSlice = onSlice;
+    }
+
+    /**
+     * Feed the slices to the pool and wait for them all to finish.
+     *
+     * @param pool   - where to run them.
+     * @param starts - the start value of each slice.
+     */
+    void run(ForkJoinPool pool, Iterator<BigInteger> starts) {
+        while (failure.get() == null && starts.hasNext()) {
+            BigInteger start = starts.next();
+            // Wait for room.
+            inFlight.acquireUninterruptibly();
+            try {
+                pool.execute(new SliceTask(start));
+            } catch (RuntimeException e) {
+                inFlight.release();
+                throw e;
+            }
+        }
+        // All permits back means all done.
+        inFlight.acquireUninterruptibly(maxInFlight);
+        inFlight.release(maxInFlight);
+        Throwable t = failure.get();
+        if (t instanceof Error) {
+            throw (Error) t;
+        }
+        if (t != null) {
+            throw (RuntimeException) t;
+        }
+    }
+
+    /**
+     * Scans then processes one slice.
+     */
+    private class SliceTask extends RecursiveTask<Void> {
+        private static final long serialVersionUID = 1L;
+        private final BigInteger start;
+        // The whole sequence, started at our start - for random access.
+        private final GaloisLFSRSequence lfsr;
+
+        SliceTask(BigInteger start) {
+            this.start = start;
+            this.lfsr = new GaloisLFSRSequence(taps, start);
+        }
+
+        @Override
+        protected Void compute() {
+            try {
+                long length = length();
+                R result;
+                if (length <= SPLIT) {
+                    result = work.apply(run(start, length));
+                } else {
+                    List<RunTask> runs = new ArrayList<>();
+                    for (long offset = 0; offset < length; offset += SPLIT) {
+                        runs.add(new RunTask(offset, Math.min(SPLIT, length - offset)));
+                    }
+                    invokeAll(runs);
+                    result = runs.get(0).join();
+                    for (int i = 1; i < runs.size(); i++) {
+                        result = combine.apply(result, runs.get(i).join());
+                    }
+                }
+                onSlice.accept(start, result);
+            } catch (Throwable t) {
+                failure.compareAndSet(null, t);
+            } finally {
+                inFlight.release();
+            }
+            return null;
+        }
+
+        // How long is the slice.
+        private long length() {
+            // Most slices are short so look at the first chunk here.
+            long found = new ScanTask(start, 0).compute();
+            if (found >= 0) {
+                return found;
+            }
+            // Scan ahead in parallel.
+            Deque<ScanTask> ahead = new ArrayDeque<>();
+            long chunk = 1;
+            while (true) {
+                while (ahead.size() < getPool().getParallelism()) {
+                    ScanTask scan = new ScanTask(lfsr.valueAt(chunk * SPLIT), chunk++);
+                    scan.fork();
+                    ahead.add(scan);
+                }
+                ScanTask scan = ahead.poll();
+                found = scan.join();
+                if (found >= 0) {
+                    // Don't need the rest.
+                    ahead.forEach(s -> s.cancel(false));
+                    return scan.chunk * SPLIT + found;
+                }
+            }
+        }
+
+        /**
+         * Processes one run of the slice.
+         */
+        private class RunTask extends RecursiveTask<R> {
+            private static final long serialVersionUID = 1L;
+            private final long offset;
+            private final long length;
+
+            RunTask(long offset, long length) {
+                this.offset = offset;
+                this.length = length;
+            }
+
+            @Override
+            protected R compute() {
+                return work.apply(run(lfsr.valueAt(offset), length));
+            }
+        }
+    }
+
+    /**
+     * Looks through one chunk of a slice for a k-bit value.
+     *
+     * Results in the index of the k-bit value in the chunk or -1 if there isn't one.
+     */
+    private class ScanTask extends RecursiveTask<Long> {
+        private static final long serialVersionUID = 1L;
+        // Where the chunk starts - null if that is off the end of the cycle.
+        private final BigInteger from;
+        // Which chunk.
+        private final long chunk;
+
+        ScanTask(BigInteger from, long chunk) {
+            this.from = from;
+            this.chunk = chunk;
+        }
+
+        @Override
+        protected Long compute() {
+            if (from == null) {
+                return -1L;
+            }
+            // The very first value is the slice start - ignore it.
+            long index = chunk == 0 ? 1 : 0;
+            // An engine with no stop - it only stops if it gets back to `from` which means the
+            // chunk covers the whole cycle and the slice start is where we stop.
+            ObscureSequence engine = run(from, SPLIT);
+            if (chunk == 0) {
+                engine.next();
+            }
+            if (n <= Long.SIZE) {
+                long[] batch = new long[Sequence.BATCH];
+                int got;
+                while ((got = engine.fill(batch, 0, batch.length)) > 0) {
+                    for (int i = 0; i < got; i++, index++) {
+                        if (Long.bitCount(batch[i]) == k) {
+                            return index;
+                        }
+                    }
+                }
+            } else {
+                long[] words = new long[Words.count(n)];
+                for (; engine.nextWords(words); index++) {
+                    if (Words.bitCount(words) == k) {
+                        return index;
+                    }
+                }
+            }
+            // Ran out - only counts as the end if we came back round.
+            return index < SPLIT ? index : -1L;
+        }
+    }
+
+    /**
+     * A run of length values of the sequence starting at from.
+     */
+    private ObscureSequence run(BigInteger from, long length) {
+        ObscureSequence engine = n <= Long.SIZE
+                ? new LongGaloisLFSRSequence(taps, from.longValue())
+                : new WideGaloisLFSRSequence(taps, from);
+        return engine.limit(length);
+    }
+}
@@ -18,6 +18,9 @@
 
 package obscuresequence;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.math.BigInteger;
 
 /**
@@ -44,4 +47,22 @@ public class PlainSequence extends ObscureSequence {
         this.next = this.next.add(BigInteger.ONE);
         return next;
     }
+
+    @Override
+    public int getWidth() {
+        return stop.bitLength();
+    }
+
+    @Override
+    void save(DataOutput out) throws IOException {
+        out.writeByte(Checkpoint.PLAIN);
+        out.writeInt(stop.bitLength() - 1);
+        Checkpoint.writeBig(out, next);
+    }
+
+    static PlainSequence restore(DataInput in) throws IOException {
+        PlainSequence plain = new PlainSequence(in.readInt());
+        plain.next = Checkpoint.readBig(in);
+        return plain;
+    }
 }
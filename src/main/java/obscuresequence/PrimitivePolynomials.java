@@ -0,0 +1,289 @@
+/*
+ * Copyright 2017 OldCurmudgeon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package obscuresequence;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.OptionalInt;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.IntStream;
+
+/**
+ * Finds and checks taps for a maximum length LFSR of any width.
+ *
+ * The taps are primitive iff the polynomial is irreducible and the taps value (which is y^-1 -
+ * see GaloisField) has order exactly 2^n - 1. Irreducible is Rabin's test - (taps)^(2^n) must be
+ * taps, which is just n squarings and throws out nearly all of the candidates, and
+ * (taps)^(2^(n/p)) - taps must be a unit for each prime p dividing n. The order is right if
+ * (taps)^((2^n - 1)/r) is not 1 for each prime r dividing 2^n - 1.
+ *
+ * We don't work those out one r at a time - that would be a full exponentiation each. We raise
+ * to (2^n - 1)/(all the r) and then go down a tree, raising to the product of the other half's
+ * primes at each split, so we never do more than about log(number of primes) exponentiations'
+ * worth of work. The two halves of each split are checked in parallel.
+ *
+ * So we need the prime factors of 2^n - 1 - see MersenneFactors, which knows most of them for
+ * the widths we ship. If some of it will not factor we can only check the primes we have. The
+ * ones we are missing are all big and an irreducible polynomial's order misses a prime r with a
+ * chance of 1 in r so that is still a very safe bet - but it is a bet, hence PROBABLY_PRIMITIVE.
+ *
+ * The search goes through the trinomials (2 taps) and then the pentanomials (4 taps), highest
+ * taps first, in batches tested in parallel. We take the first primitive one in that order so
+ * the answer does not depend on the number of threads.
+ */
+public final class PrimitivePolynomials {
+    // How many candidates to test at once.
+    static final int BATCH = 64;
+
+    private PrimitivePolynomials() {
+    }
+
+    /**
+     * Find some low weight primitive taps for the width.
+     *
+     * Not cheap for wide ones - Taps.get remembers what we find.
+     *
+     * @param n - the width (at least 2).
+     * @return the taps - the width first.
+     */
+    public static int[] find(int n) {
+        if (n < 2) {
+            throw new IllegalArgumentException("No LFSR of width " + n);
+        }
+        // Before we start - rather than in every thread at once.
+        MersenneFactors.of(n);
+        // Swan - no irreducible trinomials when n is a multiple of 8.
+        int[] found = n % 8 == 0 ? null : search(new Candidates(n, 1));
+        if (found == null && n >= 5) {
+            found = search(new Candidates(n, 3));
+        }
+        if (found == null) {
+            throw new ArithmeticException("No primitive trinomial or pentanomial of degree " + n);
+        }
+        return found;
+    }
+
+    /**
+     * What verify found.
+     */
+    public enum Verdict {
+        // Proved - as far as the factors of 2^n - 1 are primes (they pass isProbablePrime, see MersenneFactors).
+        PRIMITIVE,
+        // Irreducible and right for every prime factor of 2^n - 1 we know - but we don't know them all.
+        PROBABLY_PRIMITIVE,
+        NOT_PRIMITIVE
+    }
+
+    /**
+     * Do the taps give a maximum length sequence - without running it.
+     *
+     * @param taps - the width first then the other taps.
+     * @return the verdict.
+     */
+    public static Verdict verify(int... taps) {
+        int n = Taps.check(taps.clone(), "verify")[0];
+        long[] y = GaloisField.tapWords(lowest(taps));
+        // An even number of terms (counting the 1) and y + 1 divides it.
+        if (Words.bitCount(y) % 2 != 0) {
+            return Verdict.NOT_PRIMITIVE;
+        }
+        GaloisField field = new GaloisField(n, y);
+        if (!irreducible(field, y)) {
+            return Verdict.NOT_PRIMITIVE;
+        }
+        MersenneFactors factors = MersenneFactors.of(n);
+        BigInteger[] primes = factors.primes();
+        if (primes.length > 0) {
+            BigInteger rest = field.period().divide(product(primes, 0, primes.length));
+            if (!ForkJoinPool.commonPool().invoke(new OrderCheck(field, y, rest, primes, 0, primes.length))) {
+                return Verdict.NOT_PRIMITIVE;
+            }
+        }
+        return factors.complete() ? Verdict.PRIMITIVE : Verdict.PROBABLY_PRIMITIVE;
+    }
+
+    /**
+     * Do the taps give a maximum length sequence.
+     *
+     * NB: true for PROBABLY_PRIMITIVE too - see verify.
+     *
+     * @param taps - the width first then the other taps.
+     * @return true if the sequence runs through all 2^n - 1 non-zero values.
+     */
+    public static boolean isPrimitive(int... taps) {
+        return verify(taps) != Verdict.NOT_PRIMITIVE;
+    }
+
+    /*
+     * These or their reverse - whichever has its highest tap below n lowest.
+     *
+     * Reversing the polynomial does not change whether it is primitive and GaloisField folds
+     * much faster when the taps are well below n (the defaults are mostly just below).
+     */
+    private static int[] lowest(int[] taps) {
+        int n = taps[0];
+        int high = 0;
+        int reversedHigh = 0;
+        int[] reversed = new int[taps.length];
+        reversed[0] = n;
+        for (int i = 1; i < taps.length; i++) {
+            reversed[i] = n - taps[i];
+            high = Math.max(high, taps[i]);
+            reversedHigh = Math.max(reversedHigh, reversed[i]);
+        }
+        return reversedHigh < high ? reversed : taps;
+    }
+
+    // Rabin.
+    private static boolean irreducible(GaloisField field, long[] y) {
+        int n = field.n;
+        long[] x = y;
+        for (int i = 1; i <= n; i++) {
+            // x = y^(2^i).
+            x = field.square(x);
+            if (i < n && n % i == 0 && BigInteger.valueOf(n / i).isProbablePrime(32) && !field.isUnit(xor(x, y))) {
+                return false;
+            }
+        }
+        return Arrays.equals(x, y);
+    }
+
+    private static long[] xor(long[] a, long[] b) {
+        long[] c = a.clone();
+        for (int i = 0; i < c.length; i++) {
+            c[i] ^= b[i];
+        }
+        return c;
+    }
+
+    private static BigInteger product(BigInteger[] primes, int from, int to) {
+        BigInteger product = BigInteger.ONE;
+        for (int i = from; i < to; i++) {
+            product = product.multiply(primes[i]);
+        }
+        return product;
+    }
+
+    /**
+     * base^exponent must be base'^((2^n - 1)/(the primes from lo to hi)) - so once we are down to
+     * one prime it must not be 1.
+     */
+    private static class OrderCheck extends RecursiveTask<Boolean> {
+        private static final long serialVersionUID = 1L;
+        private final GaloisField field;
+        private final long[] base;
+        private final BigInteger exponent;
+        private final BigInteger[] primes;
+        private final int lo;
+        private final int hi;
+
+        OrderCheck(GaloisField field, long[] base, BigInteger exponent, BigInteger[] primes, int lo, int hi) {
+            this.field = field;
+            this.base = base;
+            this.exponent = exponent;
+            this.primes = primes;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected Boolean compute() {
+            long[] w = field.pow(base, exponent);
+            if (hi - lo == 1) {
+                return !Arrays.equals(w, field.one());
+            }
+            int mid = (lo + hi) >>> 1;
+            // Each half takes the other half's primes.
+            OrderCheck low = new OrderCheck(field, w, product(primes, mid, hi), primes, lo, mid);
+            OrderCheck high = new OrderCheck(field, w, product(primes, lo, mid), primes, mid, hi);
+            low.fork();
+            boolean ok = high.compute();
+            return low.join() && ok;
+        }
+    }
+
+    // The first primitive one in order - testing a batch at a time in parallel.
+    private static int[] search(Iterator<int[]> candidates) {
+        int[][] batch = new int[BATCH][];
+        while (candidates.hasNext()) {
+            int size = 0;
+            while (size < BATCH && candidates.hasNext()) {
+                batch[size++] = candidates.next();
+            }
+            OptionalInt hit = IntStream.range(0, size).parallel().filter(i -> isPrimitive(batch[i])).findFirst();
+            if (hit.isPresent()) {
+                return batch[hit.getAsInt()];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * All the taps of a weight for a width - each tap below the one before, highest first.
+     *
+     * For trinomials we skip those below n/2 as they are just the others reversed.
+     */
+    private static class Candidates implements Iterator<int[]> {
+        private final int[] taps;
+        // The lowest the first tap goes.
+        private final int floor;
+        private boolean more;
+
+        Candidates(int n, int weight) {
+            taps = new int[weight + 1];
+            taps[0] = n;
+            for (int i = 1; i <= weight; i++) {
+                taps[i] = n - i;
+            }
+            floor = weight == 1 ? Math.max(n / 2, 1) : weight;
+            more = taps[weight] >= 1 && taps[1] >= floor;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return more;
+        }
+
+        @Override
+        public int[] next() {
+            if (!more) {
+                throw new NoSuchElementException();
+            }
+            int[] next = taps.clone();
+            // Move the lowest tap down - or the one above it if that cannot move, resetting those below.
+            int i = taps.length - 1;
+            while (i > 0 && taps[i] == taps.length - i) {
+                i -= 1;
+            }
+            if (i == 0 || (i == 1 && taps[1] == floor)) {
+                more = false;
+            } else {
+                taps[i] -= 1;
+                for (int j = i + 1; j < taps.length; j++) {
+                    taps[j] = taps[j - 1] - 1;
+                }
+                more = taps[1] >= floor;
+            }
+            return next;
+        }
+    }
+}
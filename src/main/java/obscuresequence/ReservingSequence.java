@@ -0,0 +1,122 @@
+/*
+ * Copyright 2017 OldCurmudgeon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package obscuresequence;
+
+import java.math.BigInteger;
+
+/**
+ * A SharedSequence where each thread reserves a block of positions at a time (hi/lo style) and
+ * issues them itself - so the shared counter is touched once per block rather than once per value.
+ *
+ * Each thread jumps its own engine to the start of each block it reserves and then just steps.
+ * The block size adapts to how fast the thread is using them - a thread that gets through a
+ * block in less than FAST reserves twice as many next time (up to MAX_BLOCK), one that takes
+ * more than SLOW reserves half as many (down to MIN_BLOCK). Busy threads soon reach blocks of
+ * thousands and hardly ever touch the counter, idle ones don't sit on many.
+ *
+ * NB: Positions reserved by a thread that stops taking values are never issued and issued()
+ * counts everything reserved - no value is ever issued twice though.
+ *
+ * @see GaloisLFSRSequence#reserving()
+ */
+public class ReservingSequence extends SharedSequence {
+    // Block sizes.
+    static final int MIN_BLOCK = 16;
+    static final int FIRST_BLOCK = 1 << 10;
+    static final int MAX_BLOCK = 1 << 20;
+    // Faster than this through a block and we double it - slower than SLOW and we halve it.
+    static final long FAST = 1_000_000;
+    static final long SLOW = 8 * FAST;
+
+    public ReservingSequence(Integer[] taps, BigInteger start) {
+        super(taps, start);
+    }
+
+    public ReservingSequence(int bits) {
+        super(bits);
+    }
+
+    ReservingSequence(Integer[] taps, BigInteger first, BigInteger count) {
+        super(taps, first, count);
+    }
+
+    @Override
+    Cursor cursor() {
+        return new Block();
+    }
+
+    /**
+     * Out of the thread's block - reserving another when it runs out.
+     */
+    @Override
+    int claim(Cursor c, int len) {
+        Block b = (Block) c;
+        if (len <= 0 || (b.next >= b.end && !b.reserve())) {
+            return 0;
+        }
+        int got = (int) Math.min(len, b.end - b.next);
+        // Usually one step on - a jump at the start of a new block.
+        if (b.next == b.at + 1) {
+            b.step();
+        } else {
+            b.moveTo(b.next);
+        }
+        b.next += got;
+        b.at = b.next - 1;
+        return got;
+    }
+
+    /**
+     * A cursor with the positions it has reserved.
+     */
+    private class Block extends Cursor {
+        // The next position to issue and the end of the block.
+        long next = 0;
+        long end = 0;
+        // How many to reserve next time.
+        int blockSize = FIRST_BLOCK;
+        // When we last reserved - 0 for never.
+        long reserved = 0;
+
+        boolean reserve() {
+            if (claimed.get() >= size) {
+                return false;
+            }
+            long now = System.nanoTime();
+            if (reserved != 0) {
+                long took = now - reserved;
+                if (took < FAST) {
+                    blockSize = Math.min(blockSize * 2, MAX_BLOCK);
+                } else if (took > SLOW) {
+                    blockSize = Math.max(blockSize / 2, MIN_BLOCK);
+                }
+            }
+            reserved = now;
+            // The one atomic.
+            long first = claimed.getAndAdd(blockSize);
+            if (first >= size) {
+                return false;
+            }
+            next = first;
+            end = first + Math.min(blockSize, size - first);
+            return true;
+        }
+    }
+}
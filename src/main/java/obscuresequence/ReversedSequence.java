@@ -0,0 +1,82 @@
+/*
+ * Copyright 2017 OldCurmudgeon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package obscuresequence;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.math.BigInteger;
+
+/**
+ * A sequence going backwards - each value is the one before the last.
+ *
+ * Just delivers previous() from an LFSR so it ends at (and includes) the LFSR's start. Stepping
+ * the source forwards again while using this works - they share the position.
+ *
+ * @see GaloisLFSRSequence#reversed()
+ */
+class ReversedSequence extends ObscureSequence {
+    // Where the values come from.
+    final ObscureSequence source;
+
+    ReversedSequence(ObscureSequence source) {
+        this.source = source;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return source.hasPrevious();
+    }
+
+    @Override
+    public BigInteger next() {
+        return source.previous();
+    }
+
+    @Override
+    public int fill(long[] dest, int off, int len) {
+        return source.fillPrevious(dest, off, len);
+    }
+
+    @Override
+    public boolean nextWords(long[] words) {
+        return source.previousWords(words);
+    }
+
+    @Override
+    public int getWidth() {
+        return source.getWidth();
+    }
+
+    // Nothing to report - just pass it on.
+    @Override
+    void instrument(SequenceMetrics metrics, int depth) {
+        source.instrument(metrics, depth + 1);
+    }
+
+    @Override
+    void save(DataOutput out) throws IOException {
+        out.writeByte(Checkpoint.REVERSED);
+        source.save(out);
+    }
+
+    static ReversedSequence restore(DataInput in) throws IOException {
+        return new ReversedSequence(Checkpoint.read(in));
+    }
+}
@@ -25,6 +25,8 @@ import java.util.Iterator;
  * Some base methods that all sequences exhibit.
  */
 public abstract class Sequence implements Iterator<BigInteger> {
+    // A reasonable size for the scratch buffers used when passing batches along.
+    static final int BATCH = 1024;
 
     /**
      * You cannot remove elements from a sequence.
@@ -32,4 +34,58 @@ public abstract class Sequence implements Iterator<BigInteger> {
     public void remove() {
         throw new UnsupportedOperationException("Cannot remove elements from a sequence.");
     }
+
+    /**
+     * Deliver a batch of values in one call.
+     *
+     * This default just calls next() for each one, sequences that can do better override it.
+     *
+     * @param dest - where to put them.
+     * @param off  - where to start in dest.
+     * @param len  - how many to deliver.
+     * @return how many were delivered - less than len only if the sequence has finished.
+     */
+    public int fill(BigInteger[] dest, int off, int len) {
+        int filled = 0;
+        while (filled < len && hasNext()) {
+            dest[off + filled++] = next();
+        }
+        return filled;
+    }
+
+    /**
+     * Deliver a batch of values as longs.
+     *
+     * Only for sequences whose values fit in 64 bits (treated as unsigned).
+     *
+     * @param dest - where to put them.
+     * @param off  - where to start in dest.
+     * @param len  - how many to deliver.
+     * @return how many were delivered - less than len only if the sequence has finished.
+     * @throws ArithmeticException if a value is too wide for a long.
+     */
+    public int fill(long[] dest, int off, int len) {
+        int filled = 0;
+        while (filled < len && hasNext()) {
+            dest[off + filled++] = toLong(next());
+        }
+        return filled;
+    }
+
+    /**
+     * A count as a long - Long.MAX_VALUE if it is bigger than that.
+     */
+    static long saturated(BigInteger n) {
+        return n.bitLength() < Long.SIZE ? n.longValue() : Long.MAX_VALUE;
+    }
+
+    /**
+     * The (unsigned) long value of a BigInteger that must fit in 64 bits.
+     */
+    static long toLong(BigInteger value) {
+        if (value.bitLength() > Long.SIZE) {
+            throw new ArithmeticException("Value too wide for a long: " + value.bitLength() + " bits.");
+        }
+        return value.longValue();
+    }
 }
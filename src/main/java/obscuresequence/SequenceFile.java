@@ -0,0 +1,314 @@
+/*
+ * Copyright 2017 OldCurmudgeon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package obscuresequence;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Values of a sequence in a file - fixed width, big-endian, unsigned - for when you want
+ * billions of them somewhere other than on the screen.
+ *
+ * Each value takes just enough whole bytes for the width of the sequence. Values are taken from
+ * the sequence as longs (up to 64 bits) or words so no BigIntegers or byte arrays are made on
+ * the way and everything goes out in big buffered writes.
+ *
+ * A file written by write(sequence, file) has a header (magic, width, bytes per value and the
+ * number of values) so open can map it and read any value in place. The channel and buffer forms
+ * just write the values - put your own header on if you want one.
+ */
+public class SequenceFile {
+    // 'OSQ1'
+    private static final int MAGIC = 0x4F535131;
+    private static final int HEADER = 3 * Integer.BYTES + Long.BYTES;
+    // Roughly how much we write at once.
+    static final int BUFFER = 1 << 16;
+
+    // The width of the values.
+    private final int width;
+    // How many.
+    private final long count;
+    // The values.
+    private final MappedTable values;
+
+    private SequenceFile(int width, long count, MappedTable values) {
+        this.width = width;
+        this.count = count;
+        this.values = values;
+    }
+
+    /**
+     * Write the rest of a sequence to a file that open can read back.
+     *
+     * @param sequence - the values - must know its width.
+     * @param file     - where to put them.
+     * @return how many were written.
+     */
+    public static long write(ObscureSequence sequence, Path file) throws IOException {
+        return write(sequence, sequence.getWidth(), file);
+    }
+
+    public static long write(ObscureSequence sequence, int width, Path file) throws IOException {
+        int bytes = bytes(width);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE)) {
+            // The count is not known 'till the end.
+            channel.position(HEADER);
+            long count = write(sequence, width, channel);
+            ByteBuffer header = ByteBuffer.allocate(HEADER);
+            header.putInt(MAGIC).putInt(width).putInt(bytes).putLong(count).flip();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Write the rest of a sequence to a channel - just the values.
+     *
+     * @return how many were written.
+     */
+    public static long write(ObscureSequence sequence, int width, WritableByteChannel channel) throws IOException {
+        Packer packer = new Packer(sequence, bytes(width));
+        ByteBuffer buffer = ByteBuffer.allocateDirect(Math.max(1, BUFFER / packer.bytes) * packer.bytes);
+        long count = 0;
+        boolean full;
+        do {
+            buffer.clear();
+            int packed = packer.pack(buffer);
+            // A full buffer means there may be more.
+            full = !buffer.hasRemaining();
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            count += packed;
+        } while (full);
+        return count;
+    }
+
+    /**
+     * Put as many values as will fit (whole) into a buffer - a MappedByteBuffer for example.
+     *
+     * @return how many were put - fewer than would fit means the sequence has ended.
+     */
+    public static int write(ObscureSequence sequence, int width, ByteBuffer buffer) {
+        return new Packer(sequence, bytes(width)).pack(buffer);
+    }
+
+    /**
+     * Map a file written by write.
+     */
+    public static SequenceFile open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER);
+            while (header.hasRemaining() && channel.read(header, header.position()) >= 0) ;
+            header.flip();
+            if (header.remaining() < HEADER || header.getInt() != MAGIC) {
+                throw new IOException("Not a sequence file: " + file);
+            }
+            int width = header.getInt();
+            int bytes = header.getInt();
+            long count = header.getLong();
+            if (bytes != bytes(width) || channel.size() < HEADER + count * bytes) {
+                throw new IOException("Sequence file is damaged: " + file);
+            }
+            return new SequenceFile(width, count, new MappedTable(channel, FileChannel.MapMode.READ_ONLY, HEADER, bytes, bytes, count));
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public long size() {
+        return count;
+    }
+
+    public BigInteger get(long i) {
+        if (width <= Long.SIZE) {
+            return LongGaloisLFSRSequence.unsigned(getLong(i));
+        }
+        long[] words = new long[Words.count(width)];
+        get(i, words);
+        return Words.toBigInteger(words);
+    }
+
+    /**
+     * Value i as a long - the width must be no more than 64.
+     */
+    public long getLong(long i) {
+        if (width > Long.SIZE) {
+            throw new ArithmeticException("Values too wide for a long: " + width + " bits.");
+        }
+        return values.get(check(i), 0);
+    }
+
+    /**
+     * Value i as words.
+     */
+    public void get(long i, long[] words) {
+        values.get(check(i), words);
+    }
+
+    /**
+     * All of them - in order - as a sequence.
+     */
+    public ObscureSequence sequence() {
+        return new Values();
+    }
+
+    // Bytes for each value.
+    private static int bytes(int width) {
+        if (width <= 0) {
+            throw new IllegalArgumentException("Need a width to write a sequence: " + width);
+        }
+        return (width + Byte.SIZE - 1) / Byte.SIZE;
+    }
+
+    private long check(long i) {
+        if (i < 0 || i >= count) {
+            throw new IndexOutOfBoundsException("No value " + i + " of " + count);
+        }
+        return i;
+    }
+
+    /**
+     * Takes values from the sequence in the cheapest form and puts them in buffers.
+     */
+    private static class Packer {
+        // Where from.
+        final ObscureSequence sequence;
+        // How many bytes each.
+        final int bytes;
+        // Scratch for a batch of longs.
+        private final long[] longs;
+        // Scratch for one value as words.
+        private final long[] words;
+
+        Packer(ObscureSequence sequence, int bytes) {
+            this.sequence = sequence;
+            this.bytes = bytes;
+            if (bytes <= Long.BYTES) {
+                longs = new long[Sequence.BATCH];
+                words = null;
+            } else {
+                longs = null;
+                words = new long[Words.count(bytes * Byte.SIZE)];
+            }
+        }
+
+        int pack(ByteBuffer buffer) {
+            return longs != null ? packLongs(buffer) : packWords(buffer);
+        }
+
+        private int packLongs(ByteBuffer buffer) {
+            int packed = 0;
+            int room;
+            while ((room = buffer.remaining() / bytes) > 0) {
+                int want = Math.min(room, longs.length);
+                int got = sequence.fill(longs, 0, want);
+                for (int i = 0; i < got; i++) {
+                    put(buffer, longs[i], bytes);
+                }
+                packed += got;
+                if (got < want) {
+                    break;
+                }
+            }
+            return packed;
+        }
+
+        private int packWords(ByteBuffer buffer) {
+            int packed = 0;
+            // The top word may be part full.
+            int top = bytes - (words.length - 1) * Long.BYTES;
+            while (buffer.remaining() >= bytes && sequence.nextWords(words)) {
+                put(buffer, words[words.length - 1], top);
+                for (int w = words.length - 2; w >= 0; w--) {
+                    buffer.putLong(words[w]);
+                }
+                packed += 1;
+            }
+            return packed;
+        }
+
+        // The low n bytes of the value - big-endian.
+        private static void put(ByteBuffer buffer, long value, int n) {
+            if (n == Long.BYTES) {
+                buffer.putLong(value);
+                return;
+            }
+            if (value >>> (n * Byte.SIZE) != 0) {
+                throw new IllegalArgumentException("Value too wide for " + n + " bytes: " + Long.toUnsignedString(value));
+            }
+            for (int b = n - 1; b >= 0; b--) {
+                buffer.put((byte) (value >>> (b * Byte.SIZE)));
+            }
+        }
+    }
+
+    /**
+     * The values read back.
+     */
+    private class Values extends ObscureSequence {
+        // The next one.
+        private long i = 0;
+
+        @Override
+        public boolean hasNext() {
+            return i < count;
+        }
+
+        @Override
+        public BigInteger next() {
+            return hasNext() ? get(i++) : null;
+        }
+
+        @Override
+        public int fill(long[] dest, int off, int len) {
+            int filled = 0;
+            while (filled < len && i < count) {
+                dest[off + filled++] = getLong(i++);
+            }
+            return filled;
+        }
+
+        @Override
+        public boolean nextWords(long[] words) {
+            if (!hasNext()) {
+                return false;
+            }
+            get(i++, words);
+            return true;
+        }
+
+        @Override
+        public int getWidth() {
+            return width;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2017 OldCurmudgeon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package obscuresequence;
+
+/**
+ * Where a sequence reports how much work it is doing - plug in whatever you use for metrics.
+ *
+ * Each stage of a chain (see ObscureSequence.instrument) asks for its own Stage by name and
+ * tells it what it does:
+ *
+ * - produced - values it delivered.
+ * - rejected - values it threw away (obscureBit drops about half, SlicedSequence drops
+ * candidates too big for the combinadic).
+ * - discarded - values skipped by discard/jump.
+ * - untouched - values delivered without the stage doing its job (the tail of a stagger that
+ * is not a whole block and is not permuted).
+ * - latency - how long each next() took - only measured on the outside of the chain.
+ *
+ * Stages report in batches where they can. All the methods do nothing by default and nothing
+ * is counted or timed unless you instrument so it costs nothing if you don't.
+ *
+ * @see SimpleSequenceMetrics
+ */
+public interface SequenceMetrics {
+    // Ignores everything.
+    SequenceMetrics NONE = name -> Stage.NONE;
+
+    /**
+     * The stage with that name.
+     *
+     * Names are the position in the chain (0 is the outside) and what it is - e.g. "1.obscureBits".
+     * Asked for once per stage when instrumenting so it need not be fast.
+     *
+     * @param name - the name of the stage.
+     * @return where it should report.
+     */
+    Stage stage(String name);
+
+    /**
+     * One stage - must be thread safe if the sequences are.
+     */
+    interface Stage {
+        // Ignores everything.
+        Stage NONE = new Stage() {
+        };
+
+        default void produced(long n) {
+        }
+
+        default void rejected(long n) {
+        }
+
+        default void discarded(long n) {
+        }
+
+        default void untouched(long n) {
+        }
+
+        default void latency(long nanos) {
+        }
+    }
+}
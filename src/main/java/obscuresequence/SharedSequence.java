@@ -0,0 +1,232 @@
+/*
+ * Copyright 2017 OldCurmudgeon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package obscuresequence;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An LFSR sequence that any number of threads can take values from at once.
+ *
+ * There is no lock. Taking a value is one getAndIncrement on a shared counter to claim the next
+ * position, then the calling thread works out the value at that position itself. Each thread
+ * keeps its own cursor into the cycle so when its positions are close together (they usually
+ * are - the other threads only take a few in between) it just steps forward. Anything further
+ * than MAX_STEPS away it jumps to (see GaloisField).
+ *
+ * Every value is issued exactly once. Values do not come out in sequence order across threads
+ * but each thread sees its own in order. issue(long[]...) claims a whole run with one atomic so
+ * it is the one to use if you want lots.
+ *
+ * Like jump this assumes the taps are primitive - and there is no stopBits.
+ *
+ * @see GaloisLFSRSequence#shared()
+ */
+public class SharedSequence {
+    // Further than this and we jump rather than step.
+    static final int MAX_STEPS = 1 << 12;
+    // The width.
+    private final int n;
+    // The taps as words.
+    private final long[] taps;
+    // The first value we issue - position 0.
+    private final long[] base;
+    // How many we can issue - we count in a long, nobody will get through more than 2^63.
+    final long size;
+    // The arithmetic for jumping.
+    private final GaloisField field;
+    // How many positions have been claimed - may run past size once we are done.
+    final AtomicLong claimed = new AtomicLong();
+    // Each thread's place in the cycle.
+    private final ThreadLocal<Cursor> cursor = ThreadLocal.withInitial(this::cursor);
+
+    public SharedSequence(Integer[] taps, BigInteger start) {
+        this(taps, start, BigInteger.ONE.shiftLeft(taps[0]).subtract(BigInteger.ONE));
+    }
+
+    public SharedSequence(int bits) {
+        this(Taps.boxed(bits), BigInteger.ONE);
+    }
+
+    /**
+     * @param taps  - the taps.
+     * @param first - the first value to issue.
+     * @param count - how many to issue.
+     */
+    SharedSequence(Integer[] taps, BigInteger first, BigInteger count) {
+        if (taps == null) {
+            throw new IllegalArgumentException("No taps provided!");
+        }
+        n = taps[0];
+        this.taps = GaloisField.tapWords(taps);
+        field = new GaloisField(n, this.taps);
+        base = Words.fromBigInteger(first, n);
+        size = count.bitLength() < Long.SIZE ? count.longValue() : Long.MAX_VALUE;
+    }
+
+    /**
+     * The next value.
+     *
+     * @return the value or null if they have all been issued.
+     */
+    public BigInteger issue() {
+        Cursor c = cursor.get();
+        return c.claim(1) > 0 ? Words.toBigInteger(c.state) : null;
+    }
+
+    /**
+     * The next value as a long - the width must be no more than 64.
+     *
+     * @return the value or 0 if they have all been issued (an LFSR never makes a 0).
+     */
+    public long issueLong() {
+        checkLong();
+        Cursor c = cursor.get();
+        return c.claim(1) > 0 ? c.state[0] : 0;
+    }
+
+    /**
+     * The next value as words.
+     *
+     * @return false if they have all been issued.
+     */
+    public boolean issueWords(long[] words) {
+        Cursor c = cursor.get();
+        if (c.claim(1) == 0) {
+            return false;
+        }
+        System.arraycopy(c.state, 0, words, 0, c.state.length);
+        Arrays.fill(words, c.state.length, words.length, 0);
+        return true;
+    }
+
+    /**
+     * A batch of values - usually one claim (so one atomic) for the lot. The width must be no
+     * more than 64.
+     *
+     * @return how many were issued - fewer than len means they have all been issued.
+     */
+    public int issue(long[] dest, int off, int len) {
+        checkLong();
+        Cursor c = cursor.get();
+        int filled = 0;
+        int got;
+        while (filled < len && (got = c.claim(len - filled)) > 0) {
+            dest[off + filled++] = c.state[0];
+            for (int i = 1; i < got; i++) {
+                c.step();
+                dest[off + filled++] = c.state[0];
+            }
+        }
+        return filled;
+    }
+
+    /**
+     * How many have been issued so far.
+     */
+    public long issued() {
+        return Math.min(claimed.get(), size);
+    }
+
+    /**
+     * How many there are to issue in all.
+     */
+    public long size() {
+        return size;
+    }
+
+    public int getWidth() {
+        return n;
+    }
+
+    /**
+     * A new cursor for a thread.
+     */
+    Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Claim up to len consecutive positions for a cursor and move it to the first - the caller
+     * steps through the rest.
+     *
+     * @return how many were claimed - 0 if they have all been issued.
+     */
+    int claim(Cursor c, int len) {
+        // Don't keep counting once we are done.
+        if (len <= 0 || claimed.get() >= size) {
+            return 0;
+        }
+        long first = claimed.getAndAdd(len);
+        if (first >= size) {
+            return 0;
+        }
+        int got = (int) Math.min(len, size - first);
+        c.moveTo(first);
+        // Where it will be when the caller has stepped through them.
+        c.at = first + got - 1;
+        return got;
+    }
+
+    private void checkLong() {
+        if (n > Long.SIZE) {
+            throw new ArithmeticException("Values too wide for a long: " + n + " bits.");
+        }
+    }
+
+    /**
+     * One thread's place in the cycle.
+     */
+    class Cursor {
+        // The value at position at.
+        long[] state = base.clone();
+        long at = 0;
+
+        int claim(int len) {
+            return SharedSequence.this.claim(this, len);
+        }
+
+        void moveTo(long position) {
+            long gap = position - at;
+            if (gap >= 0 && gap <= MAX_STEPS) {
+                for (long i = 0; i < gap; i++) {
+                    step();
+                }
+            } else if (gap > 0) {
+                state = field.advance(state, BigInteger.valueOf(gap));
+            } else {
+                // Behind us - from the beginning.
+                state = field.advance(base, BigInteger.valueOf(position));
+            }
+            at = position;
+        }
+
+        // One step of the Galois LFSR.
+        void step() {
+            long tap = -(state[0] & 1);
+            int top = state.length - 1;
+            for (int i = 0; i < top; i++) {
+                state[i] = ((state[i] >>> 1) | (state[i + 1] << (Long.SIZE - 1))) ^ (taps[i] & tap);
+            }
+            state[top] = (state[top] >>> 1) ^ (taps[top] & tap);
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2017 OldCurmudgeon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+
+package obscuresequence;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A SequenceMetrics that just counts - enough to see what a chain is up to or to feed from into
+ * something else.
+ *
+ * Counters are LongAdders so any number of threads can report. Throughput is produced values per
+ * second since the stage was first asked for. Latencies go in a histogram of powers of 2
+ * nanoseconds.
+ */
+public class SimpleSequenceMetrics implements SequenceMetrics {
+    // The stages by name.
+    private final Map<String, Counters> stages = new ConcurrentHashMap<>();
+
+    @Override
+    public Counters stage(String name) {
+        return stages.computeIfAbsent(name, n -> new Counters());
+    }
+
+    /**
+     * All the stages - in name order so the outside of a chain comes first.
+     */
+    public Map<String, Counters> stages() {
+        return Collections.unmodifiableMap(new TreeMap<>(stages));
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder s = new StringBuilder();
+        stages().forEach((name, counters) -> s.append(name).append(": ").append(counters).append("\n"));
+        return s.toString();
+    }
+
+    /**
+     * The counts for one stage.
+     */
+    public static class Counters implements Stage {
+        private final LongAdder produced = new LongAdder();
+        private final LongAdder rejected = new LongAdder();
+        private final LongAdder discarded = new LongAdder();
+        private final LongAdder untouched = new LongAdder();
+        // Bucket b counts latencies of less than 2^b nanoseconds (and at least 2^(b-1)).
+        private final AtomicLongArray latencies = new AtomicLongArray(Long.SIZE);
+        // When we started.
+        private final long started = System.nanoTime();
+
+        @Override
+        public void produced(long n) {
+            produced.add(n);
+        }
+
+        @Override
+        public void rejected(long n) {
+            rejected.add(n);
+        }
+
+        @Override
+        public void discarded(long n) {
+            discarded.add(n);
+        }
+
+        @Override
+        public void untouched(long n) {
+            untouched.add(n);
+        }
+
+        @Override
+        public void latency(long nanos) {
+            latencies.incrementAndGet(Long.SIZE - Long.numberOfLeadingZeros(Math.max(nanos, 0)));
+        }
+
+        public long getProduced() {
+            return produced.sum();
+        }
+
+        public long getRejected() {
+            return rejected.sum();
+        }
+
+        public long getDiscarded() {
+            return discarded.sum();
+        }
+
+        public long getUntouched() {
+            return untouched.sum();
+        }
+
+        /**
+         * Values produced per second so far.
+         */
+        public double getThroughput() {
+            long elapsed = System.nanoTime() - started;
+            return elapsed > 0 ? getProduced() * 1e9 / elapsed : 0;
+        }
+
+        /**
+         * How many latencies were recorded in each bucket - bucket b is less than 2^b nanoseconds.
+         */
+        public long[] getLatencies() {
+            long[] counts = new long[latencies.length()];
+            for (int b = 0; b < counts.length; b++) {
+                counts[b] = latencies.get(b);
+            }
+            return counts;
+        }
+
+        /**
+         * The bucket limit that the fraction of the latencies are under - e.g. 0.99.
+         *
+         * @return the limit in nanoseconds - 0 if there are none.
+         */
+        public long getLatency(double fraction) {
+            long[] counts = getLatencies();
+            long total = 0;
+            for (long count : counts) {
+                total += count;
+            }
+            long wanted = (long) Math.ceil(total * fraction);
+            long seen = 0;
+            for (int b = 0; b < counts.length; b++) {
+                seen += counts[b];
+                if (seen >= wanted && seen > 0) {
+                    return b == Long.SIZE - 1 ? Long.MAX_VALUE : 1L << b;
+                }
+            }
+            return 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("produced=%d rejected=%d discarded=%d untouched=%d throughput=%.0f/s p50<%dns p99<%dns",
+                    getProduced(), getRejected(), getDiscarded(), getUntouched(), getThroughput(),
+                    getLatency(0.5), getLatency(0.99));
+        }
+    }
+}
@@ -0,0 +1,397 @@
+/*
+ * Copyright 2017 OldCurmudgeon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package obscuresequence;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Every slice of a SlicedSequence - where it starts, where that is in the whole LFSR cycle and
+ * how long it is.
+ *
+ * Built by scanning the whole cycle once (in parallel) so it is only practical for widths where
+ * you could walk 2^n - 1 values - up to about 40 bits. Everything fits in longs so n must be
+ * no more than 63.
+ *
+ * Kept in a file that is memory mapped so it reloads instantly. The layout (all big-endian) is:
+ *
+ * - header: magic, n, k, field width in bytes (ints) and the number of slices (long).
+ * - the slices in cycle order: rank, start, position, length.
+ * - an index of those slices in order of length (shortest first).
+ *
+ * Each field is just wide enough for n bits.
+ *
+ * @see SlicedSequence
+ */
+public class SliceCatalog {
+    // 'OSC1'
+    private static final int MAGIC = 0x4F534331;
+    private static final int HEADER = 4 * Integer.BYTES + Long.BYTES;
+    // Fields in a slice record.
+    private static final int RANK = 0;
+    private static final int START = 1;
+    private static final int POSITION = 2;
+    private static final int LENGTH = 3;
+    private static final int FIELDS = 4;
+    // How much of the cycle each scan task looks at.
+    static final int CHUNK = 1 << 20;
+
+    // The width.
+    private final int n;
+    // The bits set at a slice boundary.
+    private final int k;
+    // How many slices.
+    private final long count;
+    // The slices - in cycle order.
+    private final MappedTable slices;
+    // Their numbers - in length order.
+    private final MappedTable byLength;
+
+    private SliceCatalog(int n, int k, long count, MappedTable slices, MappedTable byLength) {
+        this.n = n;
+        this.k = k;
+        this.count = count;
+        this.slices = slices;
+        this.byLength = byLength;
+    }
+
+    /**
+     * One slice.
+     */
+    public static final class Slice {
+        private final long rank;
+        private final long start;
+        private final long position;
+        private final long length;
+
+        Slice(long rank, long start, long position, long length) {
+            this.rank = rank;
+            this.start = start;
+            this.position = position;
+            this.length = length;
+        }
+
+        /**
+         * Where the start comes in the lexicographic order of the k-bit values.
+         */
+        public long rank() {
+            return rank;
+        }
+
+        /**
+         * The first value in the slice.
+         */
+        public long start() {
+            return start;
+        }
+
+        /**
+         * Where the start is in the whole cycle of the LFSR (starting from 1).
+         */
+        public long position() {
+            return position;
+        }
+
+        /**
+         * How many values in the slice.
+         */
+        public long length() {
+            return length;
+        }
+
+        @Override
+        public String toString() {
+            return "{rank=" + rank + ", start=" + start + ", position=" + position + ", length=" + length + "}";
+        }
+    }
+
+    /**
+     * Build a catalog in the common pool.
+     */
+    public static SliceCatalog build(int n, int k, Path file) throws IOException {
+        return build(n, k, file, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Scan the whole cycle for the slice boundaries and write the catalog.
+     *
+     * @param n    - the width.
+     * @param k    - the bits set at a slice boundary.
+     * @param file - where to keep it - replaced if it exists.
+     * @param pool - where to scan.
+     * @return the catalog - mapped from the file.
+     */
+    public static SliceCatalog build(int n, int k, Path file, ForkJoinPool pool) throws IOException {
+        if (n >= Long.SIZE) {
+            throw new IllegalArgumentException("Too wide to catalog: " + n);
+        }
+        if (k < 1 || k > n) {
+            throw new IllegalArgumentException("No slices with " + k + " bits in " + n);
+        }
+        Integer[] taps = Taps.boxed(n);
+        if (taps == null) {
+            throw new IllegalArgumentException("No taps for width " + n);
+        }
+        long period = (1L << n) - 1;
+        // Scan in parallel - the chunks come back in order.
+        List<ScanTask> scans = new ArrayList<>();
+        for (long from = 0; from < period; from += CHUNK) {
+            scans.add(new ScanTask(taps, k, from, Math.min(CHUNK, period - from)));
+        }
+        long[][] found = pool.invoke(new RecursiveTask<long[][]>() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected long[][] compute() {
+                invokeAll(scans);
+                long total = 0;
+                for (ScanTask scan : scans) {
+                    total += scan.join().length / 2;
+                }
+                if (total > Integer.MAX_VALUE - 8) {
+                    throw new IllegalArgumentException("Too many slices to catalog: " + total);
+                }
+                long[] positions = new long[(int) total];
+                long[] values = new long[(int) total];
+                int i = 0;
+                for (ScanTask scan : scans) {
+                    long[] pairs = scan.join();
+                    for (int p = 0; p < pairs.length; p += 2, i++) {
+                        positions[i] = pairs[p];
+                        values[i] = pairs[p + 1];
+                    }
+                }
+                return new long[][]{positions, values};
+            }
+        });
+        long[] positions = found[0];
+        long[] values = found[1];
+        int slices = positions.length;
+        // Each runs to the next - round the cycle.
+        long[] lengths = new long[slices];
+        for (int i = 0; i < slices; i++) {
+            lengths[i] = i + 1 < slices
+                    ? positions[i + 1] - positions[i]
+                    : period - positions[i] + positions[0];
+        }
+        Integer[] order = new Integer[slices];
+        for (int i = 0; i < slices; i++) {
+            order[i] = i;
+        }
+        Arrays.parallelSort(order, Comparator.comparingLong(i -> lengths[i]));
+
+        int fieldBytes = (n + Byte.SIZE - 1) / Byte.SIZE;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER);
+            header.putInt(MAGIC).putInt(n).putInt(k).putInt(fieldBytes).putLong(slices).flip();
+            channel.write(header, 0);
+            MappedTable records = new MappedTable(channel, FileChannel.MapMode.READ_WRITE, HEADER, FIELDS * fieldBytes, fieldBytes, slices);
+            for (int i = 0; i < slices; i++) {
+                records.put(i, RANK, SlicedSequence.rank(values[i]));
+                records.put(i, START, values[i]);
+                records.put(i, POSITION, positions[i]);
+                records.put(i, LENGTH, lengths[i]);
+            }
+            MappedTable index = new MappedTable(channel, FileChannel.MapMode.READ_WRITE, records.end(), fieldBytes, fieldBytes, slices);
+            for (int i = 0; i < slices; i++) {
+                index.put(i, 0, order[i]);
+            }
+            records.force();
+            index.force();
+            return new SliceCatalog(n, k, slices, records, index);
+        }
+    }
+
+    /**
+     * Map a catalog written by build.
+     */
+    public static SliceCatalog open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER);
+            while (header.hasRemaining() && channel.read(header, header.position()) >= 0) ;
+            header.flip();
+            if (header.remaining() < HEADER || header.getInt() != MAGIC) {
+                throw new IOException("Not a slice catalog: " + file);
+            }
+            int n = header.getInt();
+            int k = header.getInt();
+            int fieldBytes = header.getInt();
+            long slices = header.getLong();
+            MappedTable records = new MappedTable(channel, FileChannel.MapMode.READ_ONLY, HEADER, FIELDS * fieldBytes, fieldBytes, slices);
+            MappedTable index = new MappedTable(channel, FileChannel.MapMode.READ_ONLY, records.end(), fieldBytes, fieldBytes, slices);
+            return new SliceCatalog(n, k, slices, records, index);
+        }
+    }
+
+    public int getWidth() {
+        return n;
+    }
+
+    public int getBits() {
+        return k;
+    }
+
+    /**
+     * How many slices.
+     */
+    public long size() {
+        return count;
+    }
+
+    /**
+     * A slice by its place in the cycle - 0 is the first one after position 0.
+     */
+    public Slice get(long i) {
+        return new Slice(slices.get(i, RANK), slices.get(i, START), slices.get(i, POSITION), slices.get(i, LENGTH));
+    }
+
+    /**
+     * The slice itself - the same as the one SlicedSequence would give.
+     */
+    public ObscureSequence sequence(Slice slice) {
+        return new GaloisLFSRSequence(n, BigInteger.valueOf(slice.start()), k);
+    }
+
+    /**
+     * The slice a value is in - see SlicedSequence.ownerRank.
+     *
+     * Finds where value is in the cycle (GaloisLFSRSequence.indexOf) and then binary searches
+     * the slices (they are in cycle order) for the last one to start at or before that. So no
+     * stepping at all.
+     *
+     * @param value - a value from one of the slices.
+     * @return its slice - or null if there is none.
+     * @throws ArithmeticException if indexOf cannot work at this width.
+     */
+    public Slice owner(long value) {
+        if (value <= 0 || Long.SIZE - Long.numberOfLeadingZeros(value) > n || count == 0) {
+            return null;
+        }
+        long position = new GaloisLFSRSequence(n).indexOf(BigInteger.valueOf(value)).longValue();
+        long lo = 0;
+        long hi = count;
+        while (lo < hi) {
+            long mid = (lo + hi) >>> 1;
+            if (slices.get(mid, POSITION) <= position) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        // Before the first one is the end of the last - round the cycle.
+        return get(lo == 0 ? count - 1 : lo - 1);
+    }
+
+    /**
+     * A slice by its place in length order - 0 is the shortest.
+     */
+    public Slice byLength(long i) {
+        return get(byLength.get(i, 0));
+    }
+
+    /**
+     * Where the slices of at least a certain length start in length order.
+     *
+     * A binary search of the index - byLength(i) for i from here up to size() are all long enough.
+     *
+     * @param length - the minimum length.
+     * @return the first place in length order with a slice that long - size() if there are none.
+     */
+    public long firstAtLeast(long length) {
+        long lo = 0;
+        long hi = count;
+        while (lo < hi) {
+            long mid = (lo + hi) >>> 1;
+            if (slices.get(byLength.get(mid, 0), LENGTH) < length) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Some slices of at least a certain length - the shortest that will do first.
+     *
+     * @param length - the minimum length.
+     * @param max    - most to return.
+     * @return the slices.
+     */
+    public List<Slice> atLeast(long length, int max) {
+        List<Slice> found = new ArrayList<>();
+        for (long i = firstAtLeast(length); i < count && found.size() < max; i++) {
+            found.add(byLength(i));
+        }
+        return found;
+    }
+
+    /**
+     * Finds the k-bit values in one chunk of the cycle.
+     *
+     * Results in pairs of position and value.
+     */
+    private static class ScanTask extends RecursiveTask<long[]> {
+        private static final long serialVersionUID = 1L;
+        private final Integer[] taps;
+        private final int k;
+        private final long from;
+        private final long length;
+
+        ScanTask(Integer[] taps, int k, long from, long length) {
+            this.taps = taps;
+            this.k = k;
+            this.from = from;
+            this.length = length;
+        }
+
+        @Override
+        protected long[] compute() {
+            ObscureSequence engine = new LongGaloisLFSRSequence(taps).jump(from).limit(length);
+            long[] found = new long[16];
+            int size = 0;
+            long[] batch = new long[Sequence.BATCH];
+            long position = from;
+            int got;
+            while ((got = engine.fill(batch, 0, batch.length)) > 0) {
+                for (int i = 0; i < got; i++, position++) {
+                    if (Long.bitCount(batch[i]) == k) {
+                        if (size == found.length) {
+                            found = Arrays.copyOf(found, size * 2);
+                        }
+                        found[size++] = position;
+                        found[size++] = batch[i];
+                    }
+                }
+            }
+            return Arrays.copyOf(found, size);
+        }
+    }
+}
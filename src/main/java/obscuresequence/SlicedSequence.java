@@ -19,7 +19,12 @@
 package obscuresequence;
 
 import java.math.BigInteger;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiConsumer;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
 
 /**
  * Slices up a sequence into multiple sections.
@@ -40,15 +45,28 @@ public class SlicedSequence implements Iterable<ObscureSequence> {
     private final int n;
     // How many bits are set in the number at the start and end of a slice.
     private final int k;
+    // How many slices there are - nChooseK(n,k).
+    private final BigInteger limit;
+    // The same as a long if it fits and n is small enough to use the long rows of the triangle.
+    private final long longLimit;
     // The LFSR used to select the next slice start.
     private final ObscureSequence slicer;
+    // Where we report.
+    private SequenceMetrics.Stage stats = SequenceMetrics.Stage.NONE;
+    // We find owners by placing every slice start in the cycle - so no more than this many of them ...
+    static final int MAX_BOUNDARIES = 1 << 18;
+    // ... and no more than this many logs to place them (see Boundaries).
+    static final int MAX_LOGS = 1 << 12;
+    // Built when first needed.
+    private Boundaries boundaries = null;
 
     public SlicedSequence(int n, int k) {
         this.n = n;
         this.k = k;
         // Build the LFSR to pseudo-randomly select the slices.
         // There will be nChoosek(n,k) slices.
-        BigInteger limit = nChooseK(n, k);
+        limit = Binomials.choose(n, k);
+        longLimit = n <= Binomials.ROWS ? Binomials.chooseLong(n, k) : Binomials.TOO_BIG;
         // And therefore I need an LFSR with that bit length.
         int bitLength = limit.bitLength();
         // Build me a big-enough lfsr.
@@ -57,15 +75,223 @@ public class SlicedSequence implements Iterable<ObscureSequence> {
 
     @Override
     public Iterator<ObscureSequence> iterator() {
+        final Iterator<BigInteger> starts = starts();
         return new Iterator<ObscureSequence>() {
-            // The next sequence to issue.
-            ObscureSequence next = null;
+            @Override
+            public boolean hasNext() {
+                return starts.hasNext();
+            }
+
+            @Override
+            public ObscureSequence next() {
+                /*
+                 * TODO - May be worth removing the first emission because it will be the seed
+                 * and we can then discard trivial sequences that contain only one entry.
+                 */
+                // Every slice has at least its start value in it.
+                return hasNext() ? new GaloisLFSRSequence(n, starts.next(), k) : null;
+            }
+        };
+    }
+
+    /**
+     * Which slice a value is in - by the rank of its start.
+     *
+     * Slices never overlap - each runs from a k-bit value up to the next one in the LFSR cycle and
+     * every k-bit value starts one - so the owner is the slice starting at the nearest k-bit value
+     * at or before value (see sliceStart). That is ranked, which is not the order the iterator
+     * hands the slices out in - that is the order of the slicer so it cannot be had without
+     * running the slicer up to it.
+     *
+     * @param value - a value from one of the slices.
+     * @return the rank of the start of its slice (see slice(BigInteger)) - or null if there is none.
+     * @throws IllegalStateException if owners cannot be found for this n and k - see sliceStart.
+     */
+    public BigInteger ownerRank(BigInteger value) {
+        BigInteger start = sliceStart(value);
+        return start == null ? null : rank(start);
+    }
+
+    /**
+     * The start of the slice a value is in - the nearest k-bit value at or before it in the cycle.
+     *
+     * We find where all the k-bit values are in the cycle once (see Boundaries) and then it is an
+     * indexOf and a binary search. That only works while there are few of them - no more than
+     * MAX_BOUNDARIES slices and (n-1,k-1) no more than MAX_LOGS (see canFindOwners) - and indexOf
+     * works at width n. Anything else throws whatever the value - slices are then on average
+     * 2^n / (n,k) long so there is no stepping back to the start either. For (95,5) or (64,4) use a
+     * SliceCatalog (if it fits) or keep track of the slice as you go.
+     *
+     * @param value - a value from one of the slices.
+     * @return the start of its slice - or null if there is none.
+     * @throws IllegalStateException if owners cannot be found for this n and k.
+     */
+    public BigInteger sliceStart(BigInteger value) {
+        Boundaries boundaries = boundaries();
+        if (value.signum() <= 0 || value.bitLength() > n || limit.signum() == 0) {
+            return null;
+        }
+        return value.bitCount() == k ? value : boundaries.before(value);
+    }
+
+    /**
+     * Can sliceStart and ownerRank work for this n and k?
+     *
+     * NB: They can still fail if indexOf cannot work at width n - see GaloisLFSRSequence.indexOf.
+     */
+    public boolean canFindOwners() {
+        return limit.compareTo(BigInteger.valueOf(MAX_BOUNDARIES)) <= 0
+                && Binomials.choose(n - 1, k - 1).compareTo(BigInteger.valueOf(MAX_LOGS)) <= 0;
+    }
+
+    private synchronized Boundaries boundaries() {
+        if (boundaries == null) {
+            if (!canFindOwners()) {
+                throw new IllegalStateException("Cannot find owners of (" + n + "," + k + ") slices - there are "
+                        + limit + " (at most " + MAX_BOUNDARIES + ") needing " + Binomials.choose(n - 1, k - 1)
+                        + " logs (at most " + MAX_LOGS + ")");
+            }
+            try {
+                boundaries = new Boundaries(n, k);
+            } catch (ArithmeticException e) {
+                throw new IllegalStateException("Cannot find owners of " + n + " bit slices - " + e.getMessage(), e);
+            }
+        }
+        return boundaries;
+    }
+
+    /**
+     * Every k-bit value with where it is in the cycle of GaloisLFSRSequence(n).
+     *
+     * In the field the value with bits a0 < a1 < ... is y^a0 * u where u = value >> a0 has bit 0 set.
+     * The taps are y^-1 so the position of y^a0 * u is the position of u less a0. So we only need
+     * the logs of the (n-1,k-1) k-bit values with bit 0 set - everything else is a shift of one.
+     */
+    private static final class Boundaries {
+        // The cycle we place them in.
+        final GaloisLFSRSequence cycle;
+        // Where they are - ascending.
+        final BigInteger[] positions;
+        // The k-bit values at those positions.
+        final BigInteger[] starts;
+
+        Boundaries(int n, int k) {
+            cycle = new GaloisLFSRSequence(n);
+            BigInteger period = BigInteger.ONE.shiftLeft(n).subtract(BigInteger.ONE);
+            int count = Binomials.choose(n - 1, k - 1).intValue();
+            BigInteger[] units = new BigInteger[count];
+            for (int m = 0; m < count; m++) {
+                units[m] = combinadic(n - 1, k - 1, BigInteger.valueOf(m)).shiftLeft(1).setBit(0);
+            }
+            BigInteger[] logs = cycle.indexesOf(units);
+            int size = Binomials.choose(n, k).intValue();
+            BigInteger[] positions = new BigInteger[size];
+            BigInteger[] starts = new BigInteger[size];
+            int i = 0;
+            for (int m = 0; m < count; m++) {
+                for (int a0 = 0; units[m].bitLength() + a0 <= n; a0++) {
+                    positions[i] = logs[m].subtract(BigInteger.valueOf(a0)).mod(period);
+                    starts[i] = units[m].shiftLeft(a0);
+                    i += 1;
+                }
+            }
+            // Sort them into cycle order.
+            Integer[] order = new Integer[size];
+            Arrays.setAll(order, j -> j);
+            Arrays.sort(order, (x, y) -> positions[x].compareTo(positions[y]));
+            this.positions = new BigInteger[size];
+            this.starts = new BigInteger[size];
+            for (int j = 0; j < size; j++) {
+                this.positions[j] = positions[order[j]];
+                this.starts[j] = starts[order[j]];
+            }
+        }
+
+        // The last one at or before value.
+        BigInteger before(BigInteger value) {
+            int i = Arrays.binarySearch(positions, cycle.indexOf(value));
+            // Not found gives -(insertion point) - 1 and the one before the insertion point is the one.
+            i = i >= 0 ? i : -i - 2;
+            // Before the first one is the end of the last - round the cycle.
+            return starts[i >= 0 ? i : starts.length - 1];
+        }
+    }
+
+    /**
+     * A slice by the rank of its start - the slice ownerRank(value) found.
+     *
+     * @param rank - where its start comes in the lexicographic order of the k-bit values.
+     * @return the slice - the same as the one the iterator gives.
+     */
+    public ObscureSequence slice(BigInteger rank) {
+        if (rank.signum() < 0 || rank.compareTo(limit) >= 0) {
+            throw new IllegalArgumentException("No slice " + rank + " of " + limit);
+        }
+        return new GaloisLFSRSequence(n, combinadic(n, k, rank), k);
+    }
+
+    /**
+     * Report the slices made (produced) and the slicer values too big for the combinadic
+     * (rejected) - see SequenceMetrics. The slices themselves are not instrumented.
+     *
+     * @param metrics - where to report.
+     * @return this.
+     */
+    public SlicedSequence instrument(SequenceMetrics metrics) {
+        stats = metrics.stage("0.slicer");
+        return this;
+    }
+
+    /**
+     * Process all of the slices in parallel.
+     *
+     * Slices are handed to the pool as they are picked, but no more than maxInFlight at a time.
+     * Each slice is first scanned (cheaply) to find its length. Long ones are then split into
+     * runs that are processed in parallel and their results are combined in order.
+     *
+     * Call from outside the pool - this waits until all slices have been processed.
+     *
+     * @param pool        - where to do the work.
+     * @param maxInFlight - how many slices can be on the go at once.
+     * @param work        - processes one run of a slice (maybe the whole slice).
+     * @param combine     - combines the results of consecutive runs of one slice.
+     * @param onSlice     - given the start value of each slice with its result - must be thread safe.
+     * @param <R>         - the type of the result.
+     */
+    public <R> void forEachSlice(ForkJoinPool pool, int maxInFlight,
+                                 Function<ObscureSequence, R> work,
+                                 BinaryOperator<R> combine,
+                                 BiConsumer<BigInteger, R> onSlice) {
+        new ParallelSlices<>(n, k, maxInFlight, work, combine, onSlice).run(pool, starts());
+    }
+
+    /**
+     * Process all of the slices in parallel using the common pool.
+     */
+    public <R> void forEachSlice(Function<ObscureSequence, R> work,
+                                 BinaryOperator<R> combine,
+                                 BiConsumer<BigInteger, R> onSlice) {
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        forEachSlice(pool, pool.getParallelism() * 4, work, combine, onSlice);
+    }
+
+    /**
+     * The start values of the slices.
+     */
+    private Iterator<BigInteger> starts() {
+        return new Iterator<BigInteger>() {
+            // The next start to issue.
+            BigInteger next = null;
+            // Batches from the slicer when it fits in a long.
+            final long[] batch = longLimit != Binomials.TOO_BIG ? new long[Sequence.BATCH] : null;
+            int got = 0;
+            int pos = 0;
+            // Where the long path builds a start.
+            final long[] words = new long[Words.count(n)];
 
             @Override
             public boolean hasNext() {
-                while (next == null && slicer.hasNext()) {
-                    // Calculate next slice.
-                    BigInteger next = slicer.next();
+                while (next == null && (batch != null ? more() : slicer.hasNext())) {
                     /*
                      * NB: As an LFSR never generates the value 0 the combinadic result will never pick
                      * the first lexicographically ordered slice.
@@ -73,30 +299,42 @@ public class SlicedSequence implements Iterable<ObscureSequence> {
                      * Subtracting 1 from the LFSR value pulls the first slice back in but may miss
                      * the last slice but since the combinadic is usually longer than the number of
                      * slices this is less likely to be a problem.
+                     *
+                     * Since the LFSR has been chosen to be too big it can generate too big numbers.
+                     * Those would not give k bits so don't even bother working them out.
                      */
-                    BigInteger combinadic = combinadic(n, k, next.subtract(BigInteger.ONE));
-
-                    // Since the LFSR has been chosen to be too big it can generate too big numbers.
-                    if (combinadic.bitCount() == k) {
-                        // It's a good'n
-                        GaloisLFSRSequence sequence = new GaloisLFSRSequence(n, combinadic, k);
-                        // Make sure there is at least one value in the sequence.
-                        if (sequence.hasNext()) {
-                            // Use it.
-                            this.next = sequence;
-                            /*
-                             * TODO - May be worth removing the first emission because it will be the seed
-                             * and we can then discard trivial sequences that contain only one entry.
-                             */
+                    if (batch != null) {
+                        long m = batch[pos++] - 1;
+                        if (m < longLimit) {
+                            this.next = Words.toBigInteger(combinadic(n, k, m, words));
+                        }
+                    } else {
+                        BigInteger m = slicer.next().subtract(BigInteger.ONE);
+                        if (m.compareTo(limit) < 0) {
+                            this.next = combinadic(n, k, m);
                         }
                     }
+                    if (this.next != null) {
+                        stats.produced(1);
+                    } else {
+                        stats.rejected(1);
+                    }
                 }
                 return next != null;
             }
 
+            // Anything left in the batch - refilling if necessary.
+            private boolean more() {
+                if (pos == got) {
+                    got = slicer.fill(batch, 0, batch.length);
+                    pos = 0;
+                }
+                return pos < got;
+            }
+
             @Override
-            public ObscureSequence next() {
-                ObscureSequence next = hasNext() ? this.next : null;
+            public BigInteger next() {
+                BigInteger next = hasNext() ? this.next : null;
                 // Don't deliver that again.
                 this.next = null;
                 return next;
@@ -107,44 +345,82 @@ public class SlicedSequence implements Iterable<ObscureSequence> {
     /**
      * Returns the combinadic of n, k and m
      *
-     * Returns all bits set if m is too big.
+     * Walks down the binomials (a,k) from a = n - 1, setting bit a whenever m is at least (a,k).
+     * Each one follows from the last with a small multiply and divide so we only look up the first.
      *
      * @param n - The number of bits
      * @param k - How many bits must be set
-     * @param m - The position in the lexicographic sequence
+     * @param m - The position in the lexicographic sequence - must be less than (n,k).
      * @return the m'th (n, k)
      */
     private static BigInteger combinadic(int n, int k, BigInteger m) {
         BigInteger out = BigInteger.ZERO;
-        for (; n > 0; n--) {
-            BigInteger y = nChooseK(n - 1, k);
+        // (a,k)
+        BigInteger y = Binomials.choose(n - 1, k);
+        for (int a = n - 1; a >= 0 && k > 0; a--) {
             if (m.compareTo(y) >= 0) {
                 m = m.subtract(y);
-                out = out.setBit(n - 1);
+                out = out.setBit(a);
+                // (a-1,k-1) = (a,k) * k / a
+                y = a > 0 ? y.multiply(BigInteger.valueOf(k)).divide(BigInteger.valueOf(a)) : y;
                 k -= 1;
+            } else {
+                // (a-1,k) = (a,k) * (a-k) / a
+                y = a > 0 ? y.multiply(BigInteger.valueOf(a - k)).divide(BigInteger.valueOf(a)) : y;
             }
         }
         return out;
     }
 
     /**
-     * Calculates (n,k)
+     * The combinadic in longs - (n,k) must fit in a long and n be no more than Binomials.ROWS.
+     *
+     * Everything we look at on the way is no bigger than (n,k) so it all fits.
+     *
+     * @param words - where to put it.
+     * @return words.
+     */
+    private static long[] combinadic(int n, int k, long m, long[] words) {
+        Arrays.fill(words, 0);
+        for (int a = n - 1; a >= 0 && k > 0; a--) {
+            // (a,k)
+            long y = k <= a ? Binomials.longRow(a)[k] : 0;
+            if (m >= y) {
+                m -= y;
+                words[a / Long.SIZE] |= 1L << a;
+                k -= 1;
+            }
+        }
+        return words;
+    }
+
+    /**
+     * The inverse of combinadic - where a k-bit value comes in the lexicographic order.
      *
-     * Algorithm borrowed (and tweaked) from: http://stackoverflow.com/a/15302448/823393
+     * The sum of (c,i) for the i'th lowest set bit c.
      *
-     * @param n - the bit width of the number.
-     * @param k - How many bits must be set.
-     * @return the value of (n,k)
+     * @param start - the value - no wider than 63 bits.
+     * @return its rank.
      */
-    private static BigInteger nChooseK(int n, int k) {
-        if (k > n) {
-            return BigInteger.ZERO;
+    static long rank(long start) {
+        long rank = 0;
+        for (int i = 1; start != 0; i++) {
+            int c = Long.numberOfTrailingZeros(start);
+            rank += Binomials.chooseLong(c, i);
+            start &= start - 1;
         }
-        if (k <= 0 || k == n) {
-            return BigInteger.ONE;
+        return rank;
+    }
+
+    // The same at any width.
+    static BigInteger rank(BigInteger start) {
+        BigInteger rank = BigInteger.ZERO;
+        for (int c = 0, i = 1; c < start.bitLength(); c++) {
+            if (start.testBit(c)) {
+                rank = rank.add(Binomials.choose(c, i++));
+            }
         }
-        // ( n * ( nChooseK(n-1,k-1) ) ) / k;
-        return BigInteger.valueOf(n).multiply(nChooseK(n - 1, k - 1)).divide(BigInteger.valueOf(k));
+        return rank;
     }
 
     // Playing around.
@@ -18,9 +18,11 @@
 
 package obscuresequence;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.math.BigInteger;
-import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.Iterator;
 
 /**
@@ -28,7 +30,7 @@ import java.util.Iterator;
  */
 public class StaggeredSequence extends ObscureSequence {
     // The permutation to use.
-    final Permutation<BigInteger> p;
+    final Permutation p;
 
     /**
      * Staggers the source sequence using the specified permutation.
@@ -38,9 +40,74 @@ public class StaggeredSequence extends ObscureSequence {
      * @param source      - The sequence to permute.
      * @param permutation - Which permutation to use.
      */
-    public StaggeredSequence(ObscureSequence source, int permutation) {
+    public StaggeredSequence(ObscureSequence source, BigInteger permutation) {
         // Make my permutation.
-        p = new Permutation<>(source, permutation);
+        p = new Permutation(source, permutation);
+    }
+
+    public StaggeredSequence(ObscureSequence source, long permutation) {
+        this(source, BigInteger.valueOf(permutation));
+    }
+
+    public StaggeredSequence(ObscureSequence source, int permutation) {
+        this(source, (long) permutation);
+    }
+
+    private StaggeredSequence(Permutation p) {
+        this.p = p;
+    }
+
+    /**
+     * The permutation behind a permutation number.
+     *
+     * The numbering goes through the permutations of each size in lexicographic order, smallest
+     * size first, skipping the identity after [0]. So 0 is [0], 1 is [1, 0], 2 to 6 are the rest
+     * of the permutations of 3, 7 to 29 those of 4 and so on.
+     *
+     * Originally we just stepped through them all to get there. Now we find the size and then
+     * unrank within it using the factorial number system (a Lehmer code) - each digit picks the
+     * next entry from those not yet used.
+     *
+     * @param permutation - which one (not negative).
+     * @return the permute offsets (0 based).
+     */
+    public static int[] permutation(BigInteger permutation) {
+        if (permutation.signum() < 0) {
+            throw new IllegalArgumentException("No such permutation: " + permutation);
+        }
+        if (permutation.signum() == 0) {
+            return new int[]{0};
+        }
+        // Find the size - size m uses up m! - 1 numbers.
+        int m = 2;
+        BigInteger factorial = BigInteger.valueOf(2);
+        BigInteger rank = permutation;
+        while (rank.compareTo(factorial) >= 0) {
+            rank = rank.subtract(factorial.subtract(BigInteger.ONE));
+            m += 1;
+            factorial = factorial.multiply(BigInteger.valueOf(m));
+        }
+        // Unrank - the rank within size m (never 0).
+        int[] p = new int[m];
+        int[] unused = new int[m];
+        for (int i = 0; i < m; i++) {
+            unused[i] = i;
+        }
+        for (int i = 0; i < m; i++) {
+            // (m - 1 - i)!
+            factorial = factorial.divide(BigInteger.valueOf(m - i));
+            BigInteger[] digit = rank.divideAndRemainder(factorial);
+            int d = digit[0].intValue();
+            rank = digit[1];
+            p[i] = unused[d];
+            // Close the gap.
+            System.arraycopy(unused, d + 1, unused, d, m - 1 - i - d);
+        }
+        return p;
+    }
+
+    public static int[] permutation(long permutation) {
+        return permutation(BigInteger.valueOf(permutation));
     }
 
     @Override
@@ -53,6 +120,42 @@ public class StaggeredSequence extends ObscureSequence {
         return p.next();
     }
 
+    @Override
+    public int fill(BigInteger[] dest, int off, int len) {
+        return p.fill(dest, off, len);
+    }
+
+    @Override
+    public int fill(long[] dest, int off, int len) {
+        return p.fill(dest, off, len);
+    }
+
+    @Override
+    public boolean nextWords(long[] words) {
+        return p.nextWords(words);
+    }
+
+    @Override
+    public int getWidth() {
+        return p.source.getWidth();
+    }
+
+    @Override
+    void instrument(SequenceMetrics metrics, int depth) {
+        p.stats = metrics.stage(depth + ".stagger");
+        p.source.instrument(metrics, depth + 1);
+    }
+
+    @Override
+    void save(DataOutput out) throws IOException {
+        out.writeByte(Checkpoint.STAGGERED);
+        p.save(out);
+    }
+
+    static StaggeredSequence restore(DataInput in) throws IOException {
+        return new StaggeredSequence(Permutation.restore(in));
+    }
+
     /**
      * There's probably a better way to do this but this seems to work.
      *
@@ -60,105 +163,223 @@ public class StaggeredSequence extends ObscureSequence {
      *
      * The last permutation may not be applied if the sequence does not end exactly on a permutation boundary.
      *
+     * The block is taken from the source in whatever form we are being asked for - BigIntegers,
+     * longs or words - so a chain of primitive stages stays primitive. Each form has its own
+     * buffer, allocated once, and we just run round it.
+     *
      * See: https://www.quora.com/How-would-you-explain-an-algorithm-that-generates-permutations-using-lexicographic-ordering
      */
-    private static class Permutation<T> implements Iterator<T> {
+    private static class Permutation implements Iterator<BigInteger> {
+        // The forms we can hold a block in.
+        private static final int BIG = 0;
+        private static final int LONG = 1;
+        private static final int WORDS = 2;
         // The permute offsets (0 based).
-        final ArrayList<Integer> p = new ArrayList<>();
+        final int[] p;
         // The source I need to permute.
-        final Iterator<T> source;
-        // My temp buffer.
-        final ArrayList<T> buffer;
-        // Where I am in that buffer.
-        int pos = 0;
-        // The next one to deliver.
-        T next = null;
+        final ObscureSequence source;
+        // The current block - in one of these depending on mode.
+        private final BigInteger[] bigs;
+        private long[] longs = null;
+        private long[][] words = null;
+        // Which one.
+        private int mode = BIG;
+        // How many in the block - less than p.length means the source has ended.
+        private int count = 0;
+        // Where I am in the block.
+        private int pos = 0;
+        // Where we report.
+        SequenceMetrics.Stage stats = SequenceMetrics.Stage.NONE;
+
+        Permutation(ObscureSequence source, BigInteger permutation) {
+            this(source, permutation(permutation));
+        }
+
+        Permutation(ObscureSequence source, int[] p) {
+            // Note my source.
+            this.source = source;
+            this.p = p;
+            bigs = new BigInteger[p.length];
+        }
 
         @Override
         public boolean hasNext() {
-            while (next == null && (source.hasNext() || pos < buffer.size())) {
-                if (pos >= buffer.size()) {
-                    // Clear the buffer.
-                    buffer.clear();
-                    pos = 0;
-                    // Fill it from source.
-                    for (int i = 0; i < p.size() && source.hasNext(); i++) {
-                        buffer.add(source.next());
-                    }
-                    if (buffer.size() != p.size()) {
-                        // Ending! No permutation on the last one.
-                        // Flatten p.
-                        for (int i = 0; i < p.size(); i++) {
-                            p.set(i, i);
-                        }
+            // Carry on in the same form.
+            return ready(mode, words == null ? 0 : words[0].length);
+        }
+
+        @Override
+        public BigInteger next() {
+            if (!ready(BIG, 0)) {
+                return null;
+            }
+            int i = index();
+            switch (mode) {
+                case LONG:
+                    return LongGaloisLFSRSequence.unsigned(longs[i]);
+                case WORDS:
+                    return Words.toBigInteger(words[i]);
+                default:
+                    return bigs[i];
+            }
+        }
+
+        /**
+         * Deliver a batch.
+         */
+        int fill(BigInteger[] dest, int off, int len) {
+            int filled = 0;
+            while (filled < len && ready(BIG, 0)) {
+                if (mode == BIG) {
+                    // Straight out of the block.
+                    int take = Math.min(len - filled, count - pos);
+                    for (int i = 0; i < take; i++) {
+                        dest[off + filled++] = bigs[index()];
                     }
-                }
-                if (pos < buffer.size()) {
-                    next = buffer.get(p.get(pos++));
+                } else {
+                    dest[off + filled++] = next();
                 }
             }
-            return next != null;
+            return filled;
         }
 
-        @Override
-        public T next() {
-            // Give them that one
-            T next = hasNext() ? this.next : null;
-            // but only once.
-            this.next = null;
-            return next;
+        int fill(long[] dest, int off, int len) {
+            int filled = 0;
+            while (filled < len && ready(LONG, 0)) {
+                if (mode == LONG) {
+                    int take = Math.min(len - filled, count - pos);
+                    for (int i = 0; i < take; i++) {
+                        dest[off + filled++] = longs[index()];
+                    }
+                } else {
+                    dest[off + filled++] = toLong(next());
+                }
+            }
+            return filled;
         }
 
-        Permutation(Iterator<T> source, int permutation) {
-            // Note my source.
-            this.source = source;
+        boolean nextWords(long[] dest) {
+            if (!ready(WORDS, dest.length)) {
+                return false;
+            }
+            if (mode == WORDS && words[0].length == dest.length) {
+                System.arraycopy(words[index()], 0, dest, 0, dest.length);
+            } else {
+                Words.fromBigInteger(next(), dest);
+            }
+            return true;
+        }
 
-            // Start the p containing just [1] - i.e. leave it alone.
-            p.add(0);
-            for (int i = 0; i < permutation; i++) {
-                // Find the largest x such that P[x]<P[x+1].
-                int x;
-                for (x = p.size() - 2; x >= 0 && p.get(x).compareTo(p.get(x + 1)) > 0; x--) ;
-                if (x >= 0) {
-                    // Find the largest y such that P[x]<P[y].
-                    int maxY = x;
-                    for (int y = x + 1; y < p.size(); y++) {
-                        if (p.get(x).compareTo(p.get(y)) < 0) {
-                            maxY = y;
-                        }
+        // Make sure there is one to deliver - taking the next block in the specified form if needed.
+        private boolean ready(int form, int width) {
+            if (pos < count) {
+                return true;
+            }
+            mode = form;
+            pos = 0;
+            switch (form) {
+                case LONG:
+                    if (longs == null) {
+                        longs = new long[p.length];
                     }
-                    // Swap P[x] and P[y].
-                    Integer temp = p.get(x);
-                    p.set(x, p.get(maxY));
-                    p.set(maxY, temp);
-                    // Reverse P[x+1 .. n]
-                    Collections.reverse(p.subList(x + 1, p.size()));
-                } else {
-                    // If there is no such x, P is the last permutation.
-                    // Set them all back in sequence.
-                    for (int y = 0; y < p.size(); y++) {
-                        p.set(y, y);
+                    count = source.fill(longs, 0, longs.length);
+                    break;
+                case WORDS:
+                    if (words == null || words[0].length != width) {
+                        words = new long[p.length][width];
                     }
-                    // Increase the length of the array.
-                    p.add(p.size());
-                    // And try again.
-                    i -= 1;
+                    for (count = 0; count < words.length && source.nextWords(words[count]); count++) ;
+                    break;
+                default:
+                    count = source.fill(bigs, 0, bigs.length);
+            }
+            stats.produced(count);
+            if (count < p.length) {
+                // The last few - not permuted.
+                stats.untouched(count);
+            }
+            return count > 0;
+        }
+
+        // Where the next one is in the block - and move on.
+        private int index() {
+            // Ending! No permutation on the last one.
+            return count == p.length ? p[pos++] : pos++;
+        }
+
+        // The permutation and the block in whatever form it is in - then the source.
+        void save(DataOutput out) throws IOException {
+            out.writeInt(p.length);
+            for (int i : p) {
+                out.writeInt(i);
+            }
+            out.writeByte(mode);
+            out.writeInt(count);
+            out.writeInt(pos);
+            out.writeInt(words == null ? 0 : words[0].length);
+            for (int i = 0; i < count; i++) {
+                switch (mode) {
+                    case LONG:
+                        out.writeLong(longs[i]);
+                        break;
+                    case WORDS:
+                        for (long word : words[i]) {
+                            out.writeLong(word);
+                        }
+                        break;
+                    default:
+                        Checkpoint.writeBig(out, bigs[i]);
+                }
+            }
+            source.save(out);
+        }
+
+        static Permutation restore(DataInput in) throws IOException {
+            int[] p = new int[in.readInt()];
+            for (int i = 0; i < p.length; i++) {
+                p[i] = in.readInt();
+            }
+            int mode = in.readByte();
+            int count = in.readInt();
+            int pos = in.readInt();
+            int width = in.readInt();
+            long[] longs = mode == LONG ? new long[p.length] : null;
+            long[][] words = width > 0 ? new long[p.length][width] : null;
+            BigInteger[] bigs = new BigInteger[p.length];
+            for (int i = 0; i < count; i++) {
+                switch (mode) {
+                    case LONG:
+                        longs[i] = in.readLong();
+                        break;
+                    case WORDS:
+                        for (int w = 0; w < width; w++) {
+                            words[i][w] = in.readLong();
+                        }
+                        break;
+                    default:
+                        bigs[i] = Checkpoint.readBig(in);
                 }
             }
-            // Allocate my buffer.
-            buffer = new ArrayList<>(p.size());
+            Permutation permutation = new Permutation(Checkpoint.read(in), p);
+            System.arraycopy(bigs, 0, permutation.bigs, 0, count);
+            permutation.longs = longs;
+            permutation.words = words;
+            permutation.mode = mode;
+            permutation.count = count;
+            permutation.pos = pos;
+            return permutation;
         }
 
         @Override
         public String toString() {
-            return p.toString();
+            return Arrays.toString(p);
         }
 
     }
 
     public static void main(String[] args) {
         for (int i = 0; i < 1000; i++) {
-            Permutation<BigInteger> p = new Permutation<>(new PlainSequence(4), i);
+            Permutation p = new Permutation(new PlainSequence(4), BigInteger.valueOf(i));
             System.out.print(i + " = " + p + " -> ");
             while (p.hasNext()) {
                 System.out.print(p.next() + " ");
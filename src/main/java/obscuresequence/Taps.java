@@ -0,0 +1,250 @@
+/*
+ * Copyright 2017 OldCurmudgeon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package obscuresequence;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * The taps to use for each width - shared and thread safe.
+ *
+ * The defaults used to be a big Map built when GaloisLFSRSequence was loaded, boxing some 800
+ * arrays even if you only wanted one of them. Now they live in a resource (default-taps.txt)
+ * which is only read the first time someone asks, into plain int[]s indexed by width.
+ *
+ * Any obscuresequence/taps.txt on the classpath is read after the defaults and adds to (or
+ * replaces) them - same format, one LFSR per line, the width first then the other taps, # for
+ * comments. You can also register taps in code.
+ *
+ * Ask for a width we don't have and PrimitivePolynomials goes looking for one. What it finds is
+ * kept so we only look once.
+ *
+ * Run with -Dobscuresequence.verifyTaps=true to have every width checked as the table is loaded
+ * - it fails if any are not primitive. Or call verify() when you like.
+ */
+public final class Taps {
+    // The resources.
+    static final String DEFAULTS = "default-taps.txt";
+    static final String EXTRA = "obscuresequence/taps.txt";
+    // The system property.
+    static final String VERIFY = "obscuresequence.verifyTaps";
+    // The table - loaded by the holder so it is only loaded once and only if needed.
+    private static final class Table {
+        static final int[][] TAPS = load();
+    }
+
+    // Registered or found since - these win over the table.
+    private static final Map<Integer, int[]> added = new ConcurrentHashMap<>();
+
+    private Taps() {
+    }
+
+    /**
+     * The taps for a width - looking for some if we don't have any.
+     *
+     * @param n - the width (at least 2).
+     * @return the taps - the width first.
+     */
+    public static int[] get(int n) {
+        return lookup(n).clone();
+    }
+
+    /**
+     * Boxed - the way the constructors like them.
+     */
+    public static Integer[] boxed(int n) {
+        return IntStream.of(lookup(n)).boxed().toArray(Integer[]::new);
+    }
+
+    /**
+     * Do we have taps for this width without searching.
+     */
+    public static boolean listed(int n) {
+        return added.containsKey(n) || (n >= 0 && n < Table.TAPS.length && Table.TAPS[n] != null);
+    }
+
+    /**
+     * Use these taps for their width from now on.
+     *
+     * NB: They are not checked - see PrimitivePolynomials.isPrimitive.
+     *
+     * @param taps - the width first then the other taps.
+     */
+    public static void register(int... taps) {
+        added.put(taps[0], check(taps.clone(), "registered"));
+    }
+
+    /**
+     * Register all the taps in a stream - in the same format as taps.txt.
+     */
+    public static void load(InputStream in) throws IOException {
+        read(in, "stream").forEach(Taps::register);
+    }
+
+    /**
+     * Check every width we have - in parallel.
+     *
+     * @return what PrimitivePolynomials.verify says about each.
+     */
+    public static Map<Integer, PrimitivePolynomials.Verdict> verify() {
+        return verify(widths().stream().collect(Collectors.toMap(n -> n, Taps::lookup)));
+    }
+
+    private static Map<Integer, PrimitivePolynomials.Verdict> verify(Map<Integer, int[]> taps) {
+        return taps.entrySet().parallelStream()
+                .collect(Collectors.toMap(Map.Entry::getKey, e -> PrimitivePolynomials.verify(e.getValue()), (a, b) -> a, TreeMap::new));
+    }
+
+    /**
+     * A Map view - for the old GaloisLFSRSequence.defaultTaps.
+     *
+     * get works as get(int) does (null if the key is not a valid width). Iterating only sees
+     * what is listed.
+     */
+    static Map<Integer, Integer[]> asMap() {
+        return new AbstractMap<Integer, Integer[]>() {
+            @Override
+            public Integer[] get(Object key) {
+                return key instanceof Integer && (Integer) key >= 2 ? boxed((Integer) key) : null;
+            }
+
+            @Override
+            public boolean containsKey(Object key) {
+                return key instanceof Integer && (Integer) key >= 2;
+            }
+
+            @Override
+            public Set<Entry<Integer, Integer[]>> entrySet() {
+                return widths().stream()
+                        .collect(Collectors.toMap(n -> n, Taps::boxed, (a, b) -> a, TreeMap::new))
+                        .entrySet();
+            }
+        };
+    }
+
+    // All the widths listed.
+    private static Set<Integer> widths() {
+        Set<Integer> widths = IntStream.range(0, Table.TAPS.length)
+                .filter(n -> Table.TAPS[n] != null)
+                .boxed()
+                .collect(Collectors.toSet());
+        widths.addAll(added.keySet());
+        return widths;
+    }
+
+    private static int[] lookup(int n) {
+        if (n < 2) {
+            throw new IllegalArgumentException("No LFSR of width " + n);
+        }
+        int[] taps = added.get(n);
+        if (taps == null && n < Table.TAPS.length) {
+            taps = Table.TAPS[n];
+        }
+        if (taps == null) {
+            // Look for some - only once.
+            taps = added.computeIfAbsent(n, PrimitivePolynomials::find);
+        }
+        return taps;
+    }
+
+    // The defaults then any extras.
+    private static int[][] load() {
+        TreeMap<Integer, int[]> all = new TreeMap<>();
+        try {
+            try (InputStream in = Taps.class.getResourceAsStream(DEFAULTS)) {
+                if (in == null) {
+                    throw new IllegalStateException("Missing resource " + DEFAULTS);
+                }
+                read(in, DEFAULTS).forEach(taps -> all.put(taps[0], taps));
+            }
+            ClassLoader loader = Taps.class.getClassLoader();
+            Enumeration<URL> extras = loader == null ? ClassLoader.getSystemResources(EXTRA) : loader.getResources(EXTRA);
+            while (extras.hasMoreElements()) {
+                URL url = extras.nextElement();
+                try (InputStream in = url.openStream()) {
+                    read(in, url.toString()).forEach(taps -> all.put(taps[0], taps));
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (Boolean.getBoolean(VERIFY)) {
+            Set<Integer> bad = verify(all).entrySet().stream()
+                    .filter(e -> e.getValue() == PrimitivePolynomials.Verdict.NOT_PRIMITIVE)
+                    .map(Map.Entry::getKey)
+                    .collect(Collectors.toCollection(TreeSet::new));
+            if (!bad.isEmpty()) {
+                throw new IllegalStateException("Taps not primitive for widths " + bad);
+            }
+        }
+        int[][] table = new int[all.isEmpty() ? 0 : all.lastKey() + 1][];
+        all.forEach((n, taps) -> table[n] = taps);
+        return table;
+    }
+
+    // One int[] per line.
+    private static Iterable<int[]> read(InputStream in, String from) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        Map<Integer, int[]> read = new TreeMap<>();
+        int line = 0;
+        for (String s = reader.readLine(); s != null; s = reader.readLine()) {
+            line += 1;
+            int hash = s.indexOf('#');
+            s = (hash < 0 ? s : s.substring(0, hash)).trim();
+            if (!s.isEmpty()) {
+                String where = from + " line " + line;
+                try {
+                    int[] taps = Arrays.stream(s.split("[\\s,]+")).mapToInt(Integer::parseInt).toArray();
+                    read.put(taps[0], check(taps, where));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Bad taps (" + where + "): " + s, e);
+                }
+            }
+        }
+        return read.values();
+    }
+
+    // The width first and the rest inside it.
+    static int[] check(int[] taps, String where) {
+        if (taps.length == 0 || taps[0] < 2) {
+            throw new IllegalArgumentException("Bad taps (" + where + "): " + Arrays.toString(taps));
+        }
+        for (int i = 1; i < taps.length; i++) {
+            if (taps[i] < 1 || taps[i] >= taps[0]) {
+                throw new IllegalArgumentException("Bad taps (" + where + "): " + Arrays.toString(taps));
+            }
+        }
+        return taps;
+    }
+}
@@ -0,0 +1,413 @@
+/*
+ * Copyright 2017 OldCurmudgeon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package obscuresequence;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * A Galois LFSR of any width that keeps its register in a fixed long[].
+ *
+ * Generates exactly the same sequence as a GaloisLFSRSequence with the same taps, start and
+ * stopBits but shifts and taps the register in place so stepping does not allocate. The cost
+ * of a step is proportional to the number of 64-bit words in the register.
+ *
+ * Use nextWords(long[]) to stay off the BigInteger path.
+ *
+ * @see GaloisLFSRSequence
+ */
+public class WideGaloisLFSRSequence extends ObscureSequence {
+    // The bit width of the sequence.
+    private final int n;
+    // The Taps.
+    private final long[] taps;
+    // Where we started.
+    private final long[] start;
+    // Special stop - if the number of bits set hits this value. Used for slicing.
+    // Set to 0 to ignore as 0 is never returned by an LFSR.
+    private final int stopBits;
+    // The last one we returned.
+    private long[] last;
+    // The next one to return - only valid if haveNext.
+    private long[] next;
+    // Is next waiting to be delivered.
+    private boolean haveNext;
+    // Have we hit the end.
+    private boolean finished = false;
+    // How many we have delivered - less any we have stepped back over.
+    private long delivered = 0;
+    // How far we have jumped - so delivered + jumped is our position in the cycle.
+    private BigInteger jumped = BigInteger.ZERO;
+    // The arithmetic for jumping - built when first needed.
+    private GaloisField field = null;
+    // Scratch for fillOdd.
+    private long[] odd = null;
+    // Where we report.
+    private SequenceMetrics.Stage stats = SequenceMetrics.Stage.NONE;
+
+    public WideGaloisLFSRSequence(Integer[] taps, BigInteger start, int stopBits) {
+        if (taps == null) {
+            throw new IllegalArgumentException("No taps provided!");
+        }
+        // Keep track of the width.
+        this.n = taps[0];
+        // The taps value has all the bits set specified by the taps array
+        this.taps = GaloisField.tapWords(taps);
+        // Begin and continue from the specified start value.
+        this.start = Words.fromBigInteger(start, n);
+        last = this.start.clone();
+        next = this.start.clone();
+        haveNext = true;
+        this.stopBits = stopBits;
+    }
+
+    public WideGaloisLFSRSequence(Integer[] taps, BigInteger start) {
+        this(taps, start, 0);
+    }
+
+    public WideGaloisLFSRSequence(int bits, BigInteger start) {
+        // Default to the same taps as GaloisLFSRSequence.
+        this(Taps.boxed(bits), start);
+    }
+
+    public WideGaloisLFSRSequence(Integer[] taps) {
+        // Default to start at 1.
+        this(taps, BigInteger.ONE);
+    }
+
+    public WideGaloisLFSRSequence(int... taps) {
+        // Box the array.
+        this(IntStream.of(taps).boxed().toArray(Integer[]::new));
+    }
+
+    public WideGaloisLFSRSequence(int bits) {
+        // Default to start at 1.
+        this(bits, BigInteger.ONE);
+    }
+
+    public WideGaloisLFSRSequence(int bits, BigInteger start, int stopBits) {
+        this(Taps.boxed(bits), start, stopBits);
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (!haveNext && !finished) {
+            // Galois form - shift right one across all the words and xor with the taps if we shifted out a 1.
+            long tap = -(last[0] & 1);
+            int top = last.length - 1;
+            for (int i = 0; i < top; i++) {
+                next[i] = ((last[i] >>> 1) | (last[i + 1] << (Long.SIZE - 1))) ^ (taps[i] & tap);
+            }
+            next[top] = (last[top] >>> 1) ^ (taps[top] & tap);
+            // Never give them `start` again.
+            // Stop at stopBits.
+            if (Arrays.equals(next, start) || (stopBits != 0 && Words.bitCount(next) == stopBits)) {
+                finished = true;
+            } else {
+                haveNext = true;
+            }
+        }
+        return haveNext;
+    }
+
+    @Override
+    public boolean nextWords(long[] words) {
+        if (!hasNext()) {
+            return false;
+        }
+        step();
+        stats.produced(1);
+        System.arraycopy(last, 0, words, 0, last.length);
+        Arrays.fill(words, last.length, words.length, 0);
+        return true;
+    }
+
+    @Override
+    public BigInteger next() {
+        if (!hasNext()) {
+            return null;
+        }
+        step();
+        stats.produced(1);
+        return Words.toBigInteger(last);
+    }
+
+    /**
+     * Can we step back - we can go back as far as start.
+     */
+    @Override
+    public boolean hasPrevious() {
+        return jumped.signum() == 0 ? delivered > 0 : position().signum() > 0;
+    }
+
+    /**
+     * Step backwards - see GaloisLFSRSequence.previous.
+     */
+    @Override
+    public BigInteger previous() {
+        if (!hasPrevious()) {
+            return null;
+        }
+        back();
+        stats.produced(1);
+        return Words.toBigInteger(next);
+    }
+
+    @Override
+    boolean previousWords(long[] words) {
+        if (!hasPrevious()) {
+            return false;
+        }
+        back();
+        stats.produced(1);
+        System.arraycopy(next, 0, words, 0, next.length);
+        Arrays.fill(words, next.length, words.length, 0);
+        return true;
+    }
+
+    // Move back one - next becomes the one before it.
+    private void back() {
+        if (haveNext) {
+            unstep(next);
+        } else {
+            // Last is the one before.
+            long[] was = next;
+            next = last;
+            last = was;
+        }
+        haveNext = true;
+        finished = false;
+        delivered -= 1;
+    }
+
+    // Undo a step in place - if the top bit is set we tapped so xor the taps back out and shift left putting back the 1.
+    private void unstep(long[] value) {
+        int top = value.length - 1;
+        long tap = -(value[top] >>> ((n - 1) % Long.SIZE) & 1);
+        for (int i = top; i > 0; i--) {
+            value[i] = ((value[i] ^ (taps[i] & tap)) << 1) | ((value[i - 1] ^ (taps[i - 1] & tap)) >>> (Long.SIZE - 1));
+        }
+        value[0] = ((value[0] ^ (taps[0] & tap)) << 1) | (tap & 1);
+    }
+
+    /**
+     * A view of this sequence going backwards from here - see previous().
+     *
+     * @return the reversed view.
+     */
+    public ObscureSequence reversed() {
+        return new ReversedSequence(this);
+    }
+
+    @Override
+    boolean skipsEvens() {
+        return true;
+    }
+
+    /**
+     * Only the odd values - see LongGaloisLFSRSequence.fillOdd - up to 64 bits wide.
+     */
+    @Override
+    int fillOdd(long[] dest, int off, int len, SequenceMetrics.Stage rejects) {
+        if (n > Long.SIZE) {
+            throw new ArithmeticException("Value too wide for a long: " + n + " bits.");
+        }
+        if (odd == null) {
+            odd = new long[1];
+        }
+        int filled = 0;
+        while (filled < len && nextOddWords(odd, rejects)) {
+            dest[off + filled++] = odd[0];
+        }
+        return filled;
+    }
+
+    /**
+     * Only the odd values - stepping straight over each run of even ones.
+     */
+    @Override
+    boolean nextOddWords(long[] words, SequenceMetrics.Stage rejects) {
+        if (!hasNext()) {
+            return false;
+        }
+        int run = Words.lowestSetBit(next);
+        if (run > 0) {
+            int d = Words.bitLength(next) - Words.bitLength(start);
+            if (d > 0 && d <= run && startsAt(d)) {
+                // We end in this run - the one before start is last (for previous).
+                Words.shiftRight(next, d - 1);
+                long[] was = last;
+                last = next;
+                next = was;
+                haveNext = false;
+                finished = true;
+                delivered += d;
+                stats.produced(d);
+                rejects.rejected(d);
+                return false;
+            }
+            Words.shiftRight(next, run);
+            delivered += run;
+            stats.produced(run);
+            rejects.rejected(run);
+        }
+        return nextWords(words);
+    }
+
+    // Is next >>> d start.
+    private boolean startsAt(int d) {
+        for (int i = 0; i < start.length; i++) {
+            if (Words.wordAt(next, i * Long.SIZE + d) != start[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Jump forward - exactly as if next() had been called that many times.
+     *
+     * NB: Like GaloisLFSRSequence.jump this assumes the taps are primitive and steps if stopBits is set.
+     *
+     * @param steps - how many values to skip.
+     * @return this.
+     */
+    public WideGaloisLFSRSequence jump(BigInteger steps) {
+        if (steps.signum() < 0) {
+            throw new IllegalArgumentException("Cannot jump backwards: " + steps);
+        }
+        if (steps.signum() == 0 || !hasNext()) {
+            return this;
+        }
+        if (stopBits != 0) {
+            // Cannot know if we pass a stop without looking.
+            long skipped = 0;
+            for (BigInteger i = BigInteger.ZERO; i.compareTo(steps) < 0 && hasNext(); i = i.add(BigInteger.ONE)) {
+                step();
+                skipped += 1;
+            }
+            stats.discarded(skipped);
+            return this;
+        }
+        // As many as there are left.
+        stats.discarded(saturated(steps.min(field().period().subtract(position()))));
+        BigInteger target = position().add(steps);
+        if (target.compareTo(field().period()) >= 0) {
+            // Off the end - just before start again.
+            haveNext = false;
+            finished = true;
+            System.arraycopy(start, 0, last, 0, last.length);
+            unstep(last);
+            target = field().period();
+        } else {
+            long[] moved = field().advance(next, steps);
+            System.arraycopy(moved, 0, next, 0, next.length);
+        }
+        jumped = target.subtract(BigInteger.valueOf(delivered));
+        return this;
+    }
+
+    public WideGaloisLFSRSequence jump(long steps) {
+        return jump(BigInteger.valueOf(steps));
+    }
+
+    @Override
+    public ObscureSequence discard(Integer n) {
+        return discard(BigInteger.valueOf(n));
+    }
+
+    @Override
+    public ObscureSequence discard(BigInteger n) {
+        // Like stepping - discarding a negative number does nothing (jump would complain).
+        return n.signum() > 0 ? jump(n) : this;
+    }
+
+    /**
+     * Our position in the sequence - the index of the value the next call to next() will deliver.
+     *
+     * @return how many values have been delivered or skipped so far.
+     */
+    public BigInteger position() {
+        return jumped.add(BigInteger.valueOf(delivered));
+    }
+
+    /**
+     * The width of the sequence.
+     *
+     * @return the number of bits in the register.
+     */
+    @Override
+    public int getWidth() {
+        return n;
+    }
+
+    @Override
+    void instrument(SequenceMetrics metrics, int depth) {
+        stats = metrics.stage(depth + ".galois");
+    }
+
+    @Override
+    void save(DataOutput out) throws IOException {
+        out.writeByte(Checkpoint.WIDE_GALOIS);
+        Checkpoint.writeTaps(out, n, taps);
+        Checkpoint.writeWords(out, start);
+        out.writeInt(stopBits);
+        Checkpoint.writeWords(out, last);
+        Checkpoint.writeWords(out, next);
+        out.writeBoolean(haveNext);
+        out.writeBoolean(finished);
+        out.writeLong(delivered);
+        Checkpoint.writeBig(out, jumped);
+    }
+
+    static WideGaloisLFSRSequence restore(DataInput in) throws IOException {
+        Integer[] taps = Checkpoint.readTaps(in);
+        BigInteger start = Words.toBigInteger(Checkpoint.readWords(in));
+        WideGaloisLFSRSequence lfsr = new WideGaloisLFSRSequence(taps, start, in.readInt());
+        lfsr.last = Checkpoint.readWords(in);
+        lfsr.next = Checkpoint.readWords(in);
+        lfsr.haveNext = in.readBoolean();
+        lfsr.finished = in.readBoolean();
+        lfsr.delivered = in.readLong();
+        lfsr.jumped = Checkpoint.readBig(in);
+        return lfsr;
+    }
+
+    // Next becomes last - just swap the buffers.
+    private void step() {
+        long[] was = last;
+        last = next;
+        next = was;
+        // Don't deliver it again.
+        haveNext = false;
+        delivered += 1;
+    }
+
+    // The arithmetic of my taps.
+    GaloisField field() {
+        if (field == null) {
+            field = new GaloisField(n, taps);
+        }
+        return field;
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2017 OldCurmudgeon
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+
+package obscuresequence;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+/**
+ * Helpers for values held as little-endian arrays of 64-bit words.
+ *
+ * words[0] holds bits 0-63, words[1] bits 64-127 and so on.
+ */
+final class Words {
+
+    private Words() {
+    }
+
+    /**
+     * How many words are needed to hold n bits.
+     */
+    static int count(int n) {
+        return (n + Long.SIZE - 1) / Long.SIZE;
+    }
+
+    /**
+     * Unpacks a (non-negative) BigInteger into words.
+     *
+     * @param value - the value.
+     * @param words - where to put it - any words above the value are cleared.
+     * @return the words.
+     */
+    static long[] fromBigInteger(BigInteger value, long[] words) {
+        if (value.bitLength() > words.length * Long.SIZE) {
+            throw new IllegalArgumentException("Value too wide for " + words.length + " words.");
+        }
+        Arrays.fill(words, 0);
+        // Big-endian bytes - walk them from the least significant end (the top one may just be the sign).
+        byte[] bytes = value.toByteArray();
+        for (int i = 0; i < bytes.length && i < words.length * Long.BYTES; i++) {
+            words[i / Long.BYTES] |= (bytes[bytes.length - 1 - i] & 0xFFL) << (i % Long.BYTES * Byte.SIZE);
+        }
+        return words;
+    }
+
+    static long[] fromBigInteger(BigInteger value, int n) {
+        return fromBigInteger(value, new long[count(n)]);
+    }
+
+    /**
+     * Packs words into a non-negative BigInteger.
+     */
+    static BigInteger toBigInteger(long[] words) {
+        byte[] bytes = new byte[words.length * Long.BYTES];
+        for (int i = 0; i < words.length; i++) {
+            long word = words[i];
+            for (int b = 0; b < Long.BYTES; b++) {
+                bytes[bytes.length - 1 - i * Long.BYTES - b] = (byte) (word >>> (b * Byte.SIZE));
+            }
+        }
+        return new BigInteger(1, bytes);
+    }
+
+    /**
+     * Copy a run of bits from one array of words into another - ORed in, anything that would land
+     * past the end of dst is dropped.
+     *
+     * @param src  - where from.
+     * @param from - the first bit to copy.
+     * @param dst  - where to.
+     * @param to   - where the first bit goes.
+     * @param len  - how many bits.
+     */
+    static void copyBits(long[] src, int from, long[] dst, int to, int len) {
+        len = Math.min(len, dst.length * Long.SIZE - to);
+        while (len > 0) {
+            // As much as fits in both the current source word and the current destination word.
+            int chunk = Math.min(len, Math.min(Long.SIZE - from % Long.SIZE, Long.SIZE - to % Long.SIZE));
+            long bits = src[from / Long.SIZE] >>> (from % Long.SIZE);
+            if (chunk < Long.SIZE) {
+                bits &= (1L << chunk) - 1;
+            }
+            dst[to / Long.SIZE] |= bits << (to % Long.SIZE);
+            from += chunk;
+            to += chunk;
+            len -= chunk;
+        }
+    }
+
+    /**
+     * Total bits set across all words.
+     */
+    static int bitCount(long[] words) {
+        int count = 0;
+        for (long word : words) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    /**
+     * The lowest set bit - -1 if there are none.
+     */
+    static int lowestSetBit(long[] words) {
+        for (int i = 0; i < words.length; i++) {
+            if (words[i] != 0) {
+                return i * Long.SIZE + Long.numberOfTrailingZeros(words[i]);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Bits up to and including the highest set bit - 0 if there are none.
+     */
+    static int bitLength(long[] words) {
+        for (int i = words.length - 1; i >= 0; i--) {
+            if (words[i] != 0) {
+                return (i + 1) * Long.SIZE - Long.numberOfLeadingZeros(words[i]);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * The 64 bits from a bit up - zeros past the end.
+     */
+    static long wordAt(long[] words, int from) {
+        int i = from / Long.SIZE;
+        int shift = from % Long.SIZE;
+        long lo = i < words.length ? words[i] >>> shift : 0;
+        long hi = shift != 0 && i + 1 < words.length ? words[i + 1] << (Long.SIZE - shift) : 0;
+        return lo | hi;
+    }
+
+    /**
+     * Shift right in place.
+     */
+    static void shiftRight(long[] words, int by) {
+        for (int i = 0; i < words.length; i++) {
+            words[i] = wordAt(words, i * Long.SIZE + by);
+        }
+    }
+}
@@ -53,17 +53,592 @@ class ObscureSequenceTest extends Specification {
 
     }
 
+    def "Test obscureBits() matches a chain of obscureBit()"() {
+        expect:
+        sequence().obscureBits(0, 5).toList() == sequence().obscureBit(0).obscureBit(4).toList()
+        sequence().obscureBits(1, 2, 9).toList() == sequence().obscureBit(9).obscureBit(2).obscureBit(1).toList()
+        new GaloisLFSRSequence(3).obscureBits(0).toList() == [0, 1, 3, 2]
+
+        where:
+        sequence << [
+                { -> new GaloisLFSRSequence(12) },
+                { -> new LongGaloisLFSRSequence(12) },
+                { -> new WideGaloisLFSRSequence(12) }
+        ]
+    }
+
     def "Test the stagger() method"() {
         expect:
         new GaloisLFSRSequence(3).stagger(10).toList() == [1, 7, 6, 3, 5, 4, 2]
 
     }
 
+    def "Test permutation() unranks the stagger numbers"() {
+        expect:
+        StaggeredSequence.permutation(p) as List == r
+
+        where:
+        p   || r
+        0   || [0]
+        1   || [1, 0]
+        2   || [0, 2, 1]
+        10  || [0, 3, 1, 2]
+        29  || [3, 2, 1, 0]
+        867 || [5, 4, 3, 2, 1, 0]
+    }
+
+    def "Test a huge stagger()"() {
+        given: "a permutation number far too big to step to"
+        def permutation = BigInteger.ONE.shiftLeft(200)
+        def size = StaggeredSequence.permutation(permutation).length
+
+        expect:
+        new PlainSequence(16).stagger(permutation).toList().sort() == new PlainSequence(16).toList().sort()
+        new PlainSequence(16).stagger(permutation).limit(size).toList() == StaggeredSequence.permutation(permutation).collect { BigInteger.valueOf(it + 1) }
+    }
+
+    def "Test stagger() delivers the same longs and words as BigIntegers"() {
+        given: "an obscured and staggered chain on each path"
+        def expected = new GaloisLFSRSequence(12).obscureBit(0).stagger(867).toList()
+        def longs = new long[expected.size() + 1]
+        def words = new long[1]
+        def fromWords = []
+        def chain = new WideGaloisLFSRSequence(12).obscureBit(0).stagger(867)
+        while (chain.nextWords(words)) {
+            fromWords << words[0]
+        }
+
+        expect:
+        new LongGaloisLFSRSequence(12).obscureBit(0).stagger(867).fill(longs, 0, longs.length) == expected.size()
+        longs.toList().take(expected.size()) == expected
+        fromWords == expected
+    }
+
+    def "Test the long LFSR matches the BigInteger LFSR"() {
+        expect:
+        new LongGaloisLFSRSequence(n, 5, k).toList() == new GaloisLFSRSequence(n, 5, k).toList()
+
+        where:
+        n  | k
+        3  | 0
+        8  | 0
+        16 | 0
+        16 | 4
+    }
+
+    def "Test a long LFSR through the obscureBit() method"() {
+        expect:
+        new LongGaloisLFSRSequence(3).obscureBit(0).toList() == [0, 1, 3, 2]
+    }
+
+    def "Test the wide LFSR matches the BigInteger LFSR"() {
+        expect:
+        new WideGaloisLFSRSequence(n, 5, k).limit(1000).toList() == new GaloisLFSRSequence(n, 5, k).limit(1000).toList()
+
+        where:
+        n    | k
+        3    | 0
+        16   | 4
+        95   | 0
+        1024 | 0
+        4096 | 0
+    }
+
+    def "Test the taps found for a width give a maximum length sequence"() {
+        given: "taps we have to search for"
+        def taps = PrimitivePolynomials.find(n)
+        def longs = new long[1 << 12]
+        def lfsr = new LongGaloisLFSRSequence(taps)
+        long count = 0
+
+        when: "run all the way round"
+        for (int got = lfsr.fill(longs, 0, longs.length); got > 0; got = lfsr.fill(longs, 0, longs.length)) {
+            count += got
+        }
+
+        then: "every non-zero value once"
+        taps[0] == n
+        taps.length in [2, 4]
+        count == (1L << n) - 1
+        PrimitivePolynomials.isPrimitive(taps)
+
+        where:
+        n << [2, 5, 8, 13, 16, 20]
+    }
+
+    def "Test isPrimitive() agrees with the default taps"() {
+        expect:
+        (2..64).every { PrimitivePolynomials.isPrimitive(Taps.get(it)) }
+        // Reducible.
+        !PrimitivePolynomials.isPrimitive(5, 4)
+        // Irreducible but only period 5.
+        !PrimitivePolynomials.isPrimitive(4, 3, 2, 1)
+    }
+
+    def "Test verify() agrees with running the sequence"() {
+        given: "every trinomial and pentanomial"
+        def trinomials = (1..<n).collect { [n, it] }
+        def pentanomials = (1..<n).toList().subsequences().findAll { it.size() == 3 }.collect { [n] + it.sort().reverse() }
+        def candidates = trinomials + pentanomials
+
+        expect: "primitive exactly when they run through every value"
+        candidates.every { taps ->
+            def verdict = PrimitivePolynomials.verify(taps as int[])
+            def full = new LongGaloisLFSRSequence(taps as int[]).toList().size() == (1 << n) - 1
+            verdict == (full ? PrimitivePolynomials.Verdict.PRIMITIVE : PrimitivePolynomials.Verdict.NOT_PRIMITIVE)
+        }
+
+        where:
+        n << [3, 6, 8, 9]
+    }
+
+    def "Test verify() proves the default taps"() {
+        given: "every width we have"
+        def verdicts = Taps.verify()
+
+        expect:
+        verdicts.keySet().containsAll(2..786)
+        !verdicts.containsValue(PrimitivePolynomials.Verdict.NOT_PRIMITIVE)
+        verdicts[4096] == PrimitivePolynomials.Verdict.PRIMITIVE
+        // 2^786 - 1 has factors no one has found here.
+        verdicts[786] == PrimitivePolynomials.Verdict.PROBABLY_PRIMITIVE
+    }
+
+    def "Test Taps can be registered and loaded"() {
+        when: "an unusual width is registered and another loaded"
+        Taps.register(3, 1)
+        Taps.load(new ByteArrayInputStream("# The other one.\n4 1\n".getBytes("UTF-8")))
+
+        then: "they are used"
+        Taps.get(3) == [3, 1] as int[]
+        new GaloisLFSRSequence(4).toList() == new GaloisLFSRSequence(4, 1).toList()
+
+        cleanup:
+        Taps.register(3, 2)
+        Taps.register(4, 3)
+    }
+
+    def "Test reversed() goes back over what next() delivered"() {
+        given: "a slice of a sequence and the same part way through"
+        def forwards = new GaloisLFSRSequence(12, 77G, 11).toList()
+        lfsr.discard(m)
+
+        expect: "back to start then forwards again"
+        lfsr.reversed().toList() == forwards.take(m).reverse()
+        lfsr.toList() == forwards
+
+        where:
+        [lfsr, m] << [[{ new GaloisLFSRSequence(12, 77G, 11) }, { new LongGaloisLFSRSequence(12, 77L, 11) }, { new WideGaloisLFSRSequence(12, 77G, 11) }],
+                      [0, 1, 100, 5000]].combinations { make, m -> [make(), m] }
+    }
+
+    def "Test indexOf() finds where each value is"() {
+        given: "every value of a sequence"
+        def lfsr = new GaloisLFSRSequence(n, 5G)
+        def values = new GaloisLFSRSequence(n, 5G).toList()
+
+        expect: "their positions"
+        lfsr.indexesOf(values as BigInteger[]).toList() == (0..<values.size()).collect { it as BigInteger }
+        lfsr.indexOf(0G) == null
+
+        where:
+        // 2^6 - 1 and 2^12 - 1 have repeated factors.
+        n << [3, 6, 11, 12]
+    }
+
+    def "Test indexOf() at 95 bits"() {
+        given:
+        def lfsr = new GaloisLFSRSequence(95)
+        def positions = [0G, 1G, 123456789012345678901234567G, 2G.pow(95) - 2G]
+
+        expect:
+        lfsr.indexesOf(lfsr.valuesAt(positions as BigInteger[])).toList() == positions
+    }
+
+    def "Test discard() jumps to the same place as stepping"() {
+        expect:
+        new GaloisLFSRSequence(3).discard(m).toList() == correct3BitLFSRSequence.drop(m)
+        new LongGaloisLFSRSequence(3).discard(m).toList() == correct3BitLFSRSequence.drop(m)
+        new WideGaloisLFSRSequence(3).discard(m).toList() == correct3BitLFSRSequence.drop(m)
+
+        where:
+        // Nothing is discarded for a negative count.
+        m << (-2..8)
+    }
+
+    def "Test a big jump"() {
+        given: "a wide sequence stepped forward"
+        def stepped = new GaloisLFSRSequence(1024)
+        2000.times { stepped.next() }
+
+        expect:
+        new GaloisLFSRSequence(1024).jump(2000).next() == stepped.next()
+        new GaloisLFSRSequence(1024).jump(2000).position() == 2000
+    }
+
+    def "Test valueAt() and valuesAt()"() {
+        given: "a sequence"
+        def lfsr = new GaloisLFSRSequence(3)
+
+        expect:
+        (0..6).collect { lfsr.valueAt(it) } == correct3BitLFSRSequence
+        lfsr.valuesAt(6, 0, 7, 3) as List == [2, 1, null, 7]
+        // Stateless - does not disturb iteration.
+        lfsr.toList() == correct3BitLFSRSequence
+    }
+
+    def "Test fill() delivers the same values in batches"() {
+        given: "somewhere to put them"
+        def bigs = new BigInteger[10]
+        def longs = new long[10]
+
+        when: "filled"
+        def bigCount = sequence().fill(bigs, 1, 9)
+        def longCount = sequence().fill(longs, 1, 9)
+
+        then: "the same as iterating"
+        bigCount == expected.size()
+        longCount == expected.size()
+        bigs.toList().subList(1, 1 + bigCount) == expected
+        longs.toList().subList(1, 1 + longCount) == expected
+
+        where:
+        sequence                                                 || expected
+        ({ -> new GaloisLFSRSequence(3) })                       || correct3BitLFSRSequence
+        ({ -> new LongGaloisLFSRSequence(3) })                   || correct3BitLFSRSequence
+        ({ -> new GaloisLFSRSequence(3).obscureBit(0) })         || [0, 1, 3, 2]
+        ({ -> new LongGaloisLFSRSequence(3).stagger(10) })       || [1, 7, 6, 3, 5, 4, 2]
+        ({ -> new LongGaloisLFSRSequence(3).limit(4) })          || [1, 6, 3, 7]
+    }
+
+    def "Test obscureBit(0) skipping the even values matches rejecting them"() {
+        given: "the odd values found the slow way"
+        def expected = new GaloisLFSRSequence(n, start, stopBits).toList()
+                .findAll { it.testBit(0) }
+                .collect { it.shiftRight(1) }
+        def longs = new long[expected.size() + 1]
+        def words = new long[1]
+        def wide = new WideGaloisLFSRSequence(n, start, stopBits).obscureBit(0)
+        def fromWords = []
+
+        when: "the engines skip them"
+        while (wide.nextWords(words)) {
+            fromWords << Words.toBigInteger(words)
+        }
+
+        then: "the same values"
+        new GaloisLFSRSequence(n, start, stopBits).obscureBit(0).toList() == expected
+        new LongGaloisLFSRSequence(n, start.longValue(), stopBits).obscureBit(0).fill(longs, 0, longs.length) == expected.size()
+        longs.toList().subList(0, expected.size()) == expected
+        fromWords == expected
+
+        where:
+        n  | start                    | stopBits
+        3  | BigInteger.ONE           | 0
+        12 | BigInteger.valueOf(1024) | 0
+        // Start is at the end of a run of evens.
+        12 | BigInteger.valueOf(3)    | 0
+        16 | BigInteger.valueOf(77)   | 5
+    }
+
+    def "Test keystream() delivers bit 0 of each value"() {
+        given: "the keystream and the same bits the slow way"
+        def fast = new byte[1001]
+        def slow = new byte[1001]
+        def fastCount = new GaloisLFSRSequence(n).keystream().fill(fast)
+        def slowCount = Keystream.of(new GaloisLFSRSequence(n)).fill(slow)
+
+        expect:
+        fastCount == slowCount
+        fast == slow
+
+        where:
+        n << [3, 12, 64, 95, 1024]
+    }
+
+    def "Test keystream() packs the bits lowest first"() {
+        given: "a 3-bit sequence - 1, 6, 3, 7, 5, 4, 2 - has low bits 1, 0, 1, 1, 1, 0, 0"
+        def bytes = new byte[2]
+
+        expect:
+        new GaloisLFSRSequence(3).keystream().fill(java.nio.ByteBuffer.wrap(bytes)) == 1
+        bytes[0] == 0b0011101
+    }
+
+    def "Test a parallel stream() matches the sequence"() {
+        expect:
+        sequence().stream().parallel().collect(java.util.stream.Collectors.toList()) == sequence().toList()
+
+        where:
+        sequence << [
+                { -> new GaloisLFSRSequence(12) },
+                { -> new GaloisLFSRSequence(1024).limit(3000) },
+                { -> new GaloisLFSRSequence(12).obscureBit(0) }
+        ]
+    }
+
+    def "Test an LFSR stream() is sized"() {
+        given: "an LFSR part way through"
+        def lfsr = new GaloisLFSRSequence(12)
+        lfsr.discard(95)
+
+        expect:
+        lfsr.spliterator().hasCharacteristics(java.util.Spliterator.SIZED)
+        lfsr.spliterator().estimateSize() == 4000
+        lfsr.stream().count() == 4000
+    }
+
+    def "Test a Checkpoint restores a chain where it left off"() {
+        given: "a chain part way through - and part way through a stagger block"
+        def chain = sequence()
+        37.times { chain.next() }
+
+        when: "saved and restored"
+        def restored = Checkpoint.restore(Checkpoint.save(chain))
+
+        then: "both carry on the same"
+        restored.toList() == chain.toList()
+
+        where:
+        sequence << [
+                { -> new GaloisLFSRSequence(12) },
+                { -> new LongGaloisLFSRSequence(16).obscureBit(0).stagger(867).limit(5000) },
+                { -> new WideGaloisLFSRSequence(95).obscureBits(0, 7).stagger(1234567L).limit(3000) },
+                { -> new GaloisLFSRSequence(1024).obscureBit(0).obscureBit(4).stagger(10).discard(1000).limit(500) },
+                { -> new PlainSequence(10).stagger(5000) }
+        ]
+    }
+
+    def "Test a SequenceFile reads back what was written"() {
+        given: "a sequence written to a file and mapped back"
+        def file = java.nio.file.Files.createTempFile("sequence", ".bin")
+        def expected = sequence().toList()
+        def written = SequenceFile.write(sequence(), file)
+        def values = SequenceFile.open(file)
+
+        expect:
+        written == expected.size()
+        values.getWidth() == width
+        values.sequence().toList() == expected
+        (0..<values.size()).collect { values.get(it) } == expected
+        java.nio.file.Files.size(file) == 20 + written * ((width + 7) >> 3)
+
+        cleanup:
+        java.nio.file.Files.deleteIfExists(file)
+
+        where:
+        sequence                                                             || width
+        ({ -> new GaloisLFSRSequence(12) })                                  || 12
+        ({ -> new LongGaloisLFSRSequence(64).limit(1000) })                  || 64
+        ({ -> new WideGaloisLFSRSequence(95).obscureBits(0, 7).limit(1000) }) || 93
+        ({ -> new GaloisLFSRSequence(1024).stagger(10).limit(100) })         || 1024
+        ({ -> new GaloisLFSRSequence(1024).limit(1000) })                    || 1024
+        ({ -> new GaloisLFSRSequence(70, 5G, 30) })                          || 70
+    }
+
+    def "Test a SequenceFile writes a wide LFSR without next()"() {
+        given: "an LFSR that must not make BigIntegers"
+        def file = java.nio.file.Files.createTempFile("sequence", ".bin")
+        def lfsr = new GaloisLFSRSequence(1024) {
+            @Override
+            BigInteger next() {
+                throw new AssertionError("next() called")
+            }
+        }
+
+        when:
+        def written = SequenceFile.write(lfsr.limit(1000), file)
+
+        then: "the same values - and the LFSR carries on in BigIntegers"
+        written == 1000
+        SequenceFile.open(file).sequence().toList() == new GaloisLFSRSequence(1024).limit(1000).toList()
+        lfsr.hasNext()
+        lfsr.position() == 1000
+
+        cleanup:
+        java.nio.file.Files.deleteIfExists(file)
+    }
+
+    def "Test a SharedSequence issues every value exactly once"() {
+        given: "a sequence shared between threads"
+        def lfsr = new GaloisLFSRSequence(n)
+        lfsr.discard(77)
+        def shared = reserving ? lfsr.reserving() : lfsr.shared()
+        def issued = java.util.concurrent.ConcurrentHashMap.newKeySet()
+        def duplicates = new java.util.concurrent.atomic.AtomicInteger()
+
+        when: "they all take as many as they can"
+        def threads = (0..<4).collect { t ->
+            Thread.start {
+                def batch = new long[t * 10 + 1]
+                for (; ;) {
+                    def got = shared.issue(batch, 0, batch.length)
+                    if (got == 0) {
+                        break
+                    }
+                    batch.toList().take(got).each { if (!issued.add(it as BigInteger)) duplicates.incrementAndGet() }
+                }
+            }
+        }
+        threads*.join()
+
+        then: "the rest of the sequence - once each"
+        duplicates.get() == 0
+        issued == new GaloisLFSRSequence(n).discard(77).toList().toSet()
+
+        where:
+        n  | reserving
+        12 | false
+        16 | false
+        12 | true
+        16 | true
+    }
+
+    def "Test instrument() reports what each stage does"() {
+        given: "an instrumented chain run to the end"
+        def metrics = new SimpleSequenceMetrics()
+        def chain = new LongGaloisLFSRSequence(16).obscureBit(0).stagger(867).instrument(metrics)
+        chain.discard(100)
+        def count = chain.toList().size()
+        def stages = metrics.stages()
+
+        expect:
+        stages.keySet() as List == ["0.out", "1.stagger", "2.obscureBits", "3.galois"]
+        stages["0.out"].produced == count
+        stages["1.stagger"].produced == count + 100
+        // 32768 of the values are odd - the last 2 are not a whole block of 6.
+        stages["1.stagger"].untouched == 2
+        stages["2.obscureBits"].produced == (1 << 15)
+        stages["2.obscureBits"].rejected == (1 << 15) - 1
+        stages["3.galois"].produced == (1 << 16) - 1
+        stages["0.out"].getLatency(1.0) > 0
+    }
+
     def "Test a SlicedSequence"() {
         expect:
         new SlicedSequence(7, 6).iterator().next().toList() == [63, 127]
     }
 
+    def "Test a SlicedSequence starts at every k-bit value once"() {
+        given: "the start of each slice"
+        def starts = new SlicedSequence(n, k).collect { it.next() }
+
+        expect:
+        starts.size() == Binomials.choose(n, k)
+        starts.toSet().size() == starts.size()
+        starts.every { it.bitCount() == k }
+
+        where:
+        n   | k
+        12  | 3
+        // Too big for the long path.
+        130 | 1
+    }
+
+    def "Test a SliceCatalog records every slice"() {
+        given: "a catalog written and read back"
+        def file = java.nio.file.Files.createTempFile("slices", ".bin")
+        SliceCatalog.build(12, 3, file)
+        def catalog = SliceCatalog.open(file)
+        def slices = (0..<catalog.size()).collect { catalog.get(it) }
+
+        expect:
+        catalog.size() == 220
+        slices.every { catalog.sequence(it).toList().size() == it.length() }
+        slices.every { new GaloisLFSRSequence(12).valueAt(it.position()) == it.start() }
+        slices.sum { it.length() } == (1 << 12) - 1
+        catalog.atLeast(100, 1000).size() == slices.count { it.length() >= 100 }
+        catalog.atLeast(100, 1000).every { it.length() >= 100 }
+
+        cleanup:
+        java.nio.file.Files.deleteIfExists(file)
+    }
+
+    def "Test ownerRank() finds the slice of every value"() {
+        given: "every slice and a catalog of them"
+        def sliced = new SlicedSequence(n, k)
+        def slices = sliced.collect { it.toList() }
+        def file = java.nio.file.Files.createTempFile("slices", ".bin")
+        def catalog = SliceCatalog.build(n, k, file)
+
+        expect: "each value leads back to its own slice"
+        slices.every { values ->
+            def rank = sliced.ownerRank(values[0])
+            sliced.slice(rank).toList() == values &&
+                    values.every { sliced.ownerRank(it) == rank && catalog.owner(it as long).start() == values[0] }
+        }
+        sliced.ownerRank(0G) == null
+
+        cleanup:
+        java.nio.file.Files.deleteIfExists(file)
+
+        where:
+        n  | k
+        12 | 3
+        16 | 4
+    }
+
+    def "Test ownerRank() on a wide LFSR"() {
+        given: "a value deep in the cycle"
+        def sliced = new SlicedSequence(95, 2)
+        def cycle = new GaloisLFSRSequence(95)
+        def value = cycle.valueAt(2G.pow(60))
+
+        when:
+        def start = sliced.sliceStart(value)
+
+        then: "its slice starts at a 2-bit value before it and gets to it"
+        start.bitCount() == 2
+        sliced.slice(sliced.ownerRank(value)).next() == start
+        new GaloisLFSRSequence(95, start).valueAt(cycle.indexOf(value).subtract(cycle.indexOf(start))
+                .mod(2G.pow(95).subtract(1G))) == value
+    }
+
+    def "Test ownerRank() refuses too many slices"() {
+        given: "a value at a random place in the cycle"
+        def sliced = new SlicedSequence(n, k)
+        def value = new GaloisLFSRSequence(n).valueAt(new BigInteger(n - 1, new Random(n * k)))
+
+        when:
+        sliced.ownerRank(value)
+
+        then: "we are told up front"
+        !sliced.canFindOwners()
+        def e = thrown(IllegalStateException)
+        e.message.startsWith("Cannot find owners of (" + n + "," + k + ")")
+
+        where: "what SliceBenchmark uses among them"
+        n  | k
+        95 | 5
+        64 | 4
+        16 | 8
+    }
+
+    def "Test forEachSlice() processes every slice in parallel"() {
+        given: "the slices done one at a time"
+        def expected = new SlicedSequence(n, k).collectEntries { slice ->
+            def values = slice.toList()
+            [(values[0]): values]
+        }
+
+        when: "done in parallel"
+        def results = new java.util.concurrent.ConcurrentHashMap()
+        new SlicedSequence(n, k).forEachSlice(
+                { seq -> seq.toList() },
+                { a, b -> a + b },
+                { start, values -> results.put(start, values) })
+
+        then: "the same slices"
+        results == expected
+
+        where:
+        n  | k
+        7  | 6
+        12 | 3
+        // Slices long enough to be split.
+        20 | 19
+    }
+
     def "Test a big sequence"() {
         given: "a wide sequence hacked about and partially consumed"
         def lfsr = new GaloisLFSRSequence(1024)